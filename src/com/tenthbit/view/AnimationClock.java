@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.SystemClock;
+import android.view.View;
+
+/**
+ * The time base and the frame callbacks of the ZoomImageView animations. The
+ * views use {@link #SYSTEM}, tests replace it to run zooms and flings frame by
+ * frame under a simulated clock.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+interface AnimationClock {
+
+    /**
+     * The system uptime, with frames run by the view's animation callbacks.
+     */
+    AnimationClock SYSTEM = new AnimationClock() {
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        @Override
+        public void postOnAnimation(View view, Runnable runnable) {
+            if (VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN) {
+                view.postOnAnimation(runnable);
+            } else {
+                view.postDelayed(runnable, 16);
+            }
+        }
+
+        @Override
+        public void removeCallbacks(View view, Runnable runnable) {
+            view.removeCallbacks(runnable);
+        }
+    };
+
+    /**
+     * @return The current time in milliseconds, in the time base of
+     *         SystemClock.uptimeMillis().
+     */
+    long uptimeMillis();
+
+    /**
+     * Runs the runnable on the next frame.
+     */
+    void postOnAnimation(View view, Runnable runnable);
+
+    void removeCallbacks(View view, Runnable runnable);
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import android.content.Context;
+import android.hardware.SensorManager;
+import android.view.ViewConfiguration;
+
+/**
+ * A Scroller running on an {@link AnimationClock}, as the platform scrollers
+ * always read the system clock. Flings decelerate like the platform
+ * Scroller, stopping at the bounds instead of bouncing past them, and spring
+ * backs decelerate over a fixed duration.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+class ClockScroller {
+
+    private static final float INCHES_PER_METER = 39.37f;
+
+    private final AnimationClock clock;
+    private final float deceleration;
+
+    private boolean isFinished = true;
+    private boolean isFling;
+    private long startTime;
+    private int duration;
+    private int startX, startY;
+    private int finalX, finalY;
+    private int minX, maxX, minY, maxY;
+    private int currX, currY;
+    private float velocity;
+    private float coeffX, coeffY;
+
+    public ClockScroller(Context context, AnimationClock clock) {
+        this.clock = clock;
+
+        final float ppi = context.getResources().getDisplayMetrics().density * 160f;
+        deceleration = SensorManager.GRAVITY_EARTH * INCHES_PER_METER * ppi
+                * ViewConfiguration.getScrollFriction();
+    }
+
+    public void fling(int startX, int startY, int velocityX, int velocityY, int minX, int maxX,
+            int minY, int maxY) {
+        velocity = (float) Math.hypot(velocityX, velocityY);
+        coeffX = (velocity == 0) ? 1f : (velocityX / velocity);
+        coeffY = (velocity == 0) ? 1f : (velocityY / velocity);
+
+        // The distance the fling would cover if nothing stopped it
+        final float distance = (velocity * velocity) / (2 * deceleration);
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+        start(startX, startY, clamp(startX + Math.round(distance * coeffX), minX, maxX),
+                clamp(startY + Math.round(distance * coeffY), minY, maxY),
+                (int) ((1000 * velocity) / deceleration));
+        isFling = true;
+    }
+
+    public void startScroll(int startX, int startY, int dx, int dy, int duration) {
+        start(startX, startY, startX + dx, startY + dy, duration);
+        isFling = false;
+    }
+
+    private void start(int startX, int startY, int finalX, int finalY, int duration) {
+        this.startX = currX = startX;
+        this.startY = currY = startY;
+        this.finalX = finalX;
+        this.finalY = finalY;
+        this.duration = duration;
+        startTime = clock.uptimeMillis();
+        isFinished = false;
+    }
+
+    /**
+     * @return true if the animation isn't over, the new position is then
+     *         available from {@link #getCurrX()} and {@link #getCurrY()}.
+     */
+    public boolean computeScrollOffset() {
+        if (isFinished) {
+            return false;
+        }
+
+        final long elapsed = clock.uptimeMillis() - startTime;
+        if (elapsed >= duration) {
+            currX = finalX;
+            currY = finalY;
+            isFinished = true;
+        } else if (isFling) {
+            final float t = elapsed / 1000f;
+            final float distance = (velocity * t) - ((deceleration * t * t) / 2f);
+            currX = clamp(startX + Math.round(distance * coeffX), minX, maxX);
+            currY = clamp(startY + Math.round(distance * coeffY), minY, maxY);
+            if ((currX == finalX) && (currY == finalY)) {
+                isFinished = true;
+            }
+        } else {
+            final float x = (float) elapsed / duration;
+            final float f = 1f - ((1f - x) * (1f - x));
+            currX = startX + Math.round(f * (finalX - startX));
+            currY = startY + Math.round(f * (finalY - startY));
+        }
+        return true;
+    }
+
+    public void forceFinished(boolean finished) {
+        isFinished = finished;
+    }
+
+    public int getCurrX() {
+        return currX;
+    }
+
+    public int getCurrY() {
+        return currY;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.min(Math.max(value, min), max);
+    }
+}
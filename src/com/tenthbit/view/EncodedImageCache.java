@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A byte budgeted LRU cache of encoded (JPEG, PNG, WebP) images. The bytes are
+ * kept in direct ByteBuffers, outside of the Java heap where the platform
+ * allows it. Going back to a recently seen image costs a decode, but no I/O.
+ *
+ * This class is thread safe.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class EncodedImageCache {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<String, ByteBuffer>(
+            16, 0.75f, true);
+    private final int maxBytes;
+    private int bytes;
+
+    /**
+     * @param maxBytes
+     *            - The maximum number of encoded bytes kept in the cache.
+     */
+    public EncodedImageCache(int maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes should be greater than 0");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the encoded image for the given key, or null if it isn't cached.
+     * The returned buffer is read only and positioned at the start of the
+     * data.
+     */
+    public synchronized ByteBuffer get(String key) {
+        final ByteBuffer data = entries.get(key);
+        return data != null ? data.duplicate() : null;
+    }
+
+    /**
+     * Reads the stream fully, stores its content under the given key and
+     * returns it the same way as {@link #get(String)}. Images larger than the
+     * whole cache are returned without being stored.
+     */
+    public ByteBuffer put(String key, InputStream stream) throws IOException {
+        final ByteBuffer data = read(stream);
+        final ByteBuffer readOnly = data.asReadOnlyBuffer();
+        if (data.isDirect()) {
+            put(key, readOnly);
+        }
+        return readOnly.duplicate();
+    }
+
+    /**
+     * Reads the stream into a direct buffer, or into a heap buffer if it's
+     * larger than the whole cache. Files and assets report their full length
+     * from available(), so their bytes go straight into the direct buffer.
+     */
+    private ByteBuffer read(InputStream stream) throws IOException {
+        final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        final int expected = stream.available();
+        if ((expected > 0) && (expected <= maxBytes)) {
+            final ByteBuffer data = ByteBuffer.allocateDirect(expected);
+            int read = 0;
+            while (data.hasRemaining()) {
+                read = stream.read(buffer, 0, Math.min(buffer.length, data.remaining()));
+                if (read == -1) {
+                    break;
+                }
+                data.put(buffer, 0, read);
+            }
+            if ((read == -1) || ((read = stream.read(buffer)) == -1)) {
+                data.flip();
+                return data;
+            }
+
+            // available() was only an estimate, carry on with what has been read
+            final BufferOutputStream out = new BufferOutputStream(expected + read);
+            data.flip();
+            out.write(data);
+            out.write(buffer, 0, read);
+            return readRemaining(stream, buffer, out);
+        }
+        return readRemaining(stream, buffer, new BufferOutputStream(READ_BUFFER_SIZE));
+    }
+
+    private ByteBuffer readRemaining(InputStream stream, byte[] buffer, BufferOutputStream out)
+            throws IOException {
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        if (out.size() > maxBytes) {
+            return out.wrap();
+        }
+        final ByteBuffer data = ByteBuffer.allocateDirect(out.size());
+        out.copyTo(data);
+        data.flip();
+        return data;
+    }
+
+    private synchronized void put(String key, ByteBuffer data) {
+        final int size = data.remaining();
+        if (size > maxBytes) {
+            return;
+        }
+
+        final ByteBuffer previous = entries.put(key, data);
+        if (previous != null) {
+            bytes -= previous.remaining();
+        }
+        bytes += size;
+
+        trimToSize(maxBytes);
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public synchronized void evictAll() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return The number of encoded bytes currently cached.
+     */
+    public synchronized int size() {
+        return bytes;
+    }
+
+    public int maxSize() {
+        return maxBytes;
+    }
+
+    private void trimToSize(int maxSize) {
+        final Iterator<Map.Entry<String, ByteBuffer>> iterator = entries.entrySet().iterator();
+        while ((bytes > maxSize) && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().remaining();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * A ByteArrayOutputStream handing out its bytes without copying them.
+     */
+    private static class BufferOutputStream extends ByteArrayOutputStream {
+
+        public BufferOutputStream(int size) {
+            super(size);
+        }
+
+        public void write(ByteBuffer data) {
+            final byte[] chunk = new byte[Math.min(READ_BUFFER_SIZE, data.remaining())];
+            while (data.hasRemaining()) {
+                final int length = Math.min(chunk.length, data.remaining());
+                data.get(chunk, 0, length);
+                write(chunk, 0, length);
+            }
+        }
+
+        public void copyTo(ByteBuffer target) {
+            target.put(buf, 0, count);
+        }
+
+        public ByteBuffer wrap() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * Wraps the buffer in an InputStream, so it can be fed to BitmapFactory.
+     * Reading the stream advances the position of the given buffer.
+     */
+    public static InputStream openStream(ByteBuffer data) {
+        return new ByteBufferInputStream(data);
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer data;
+        private int mark;
+
+        public ByteBufferInputStream(ByteBuffer data) {
+            this.data = data;
+            this.mark = data.position();
+        }
+
+        @Override
+        public int read() {
+            return data.hasRemaining() ? (data.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, data.remaining());
+            data.get(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long count) {
+            final int skipped = (int) Math.min(Math.max(count, 0), data.remaining());
+            data.position(data.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return data.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mark = data.position();
+        }
+
+        @Override
+        public synchronized void reset() {
+            data.position(mark);
+        }
+    }
+}
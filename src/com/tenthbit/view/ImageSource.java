@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.graphics.BitmapRegionDecoder;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.util.Log;
+
+/**
+ * Where the encoded bytes of an image come from. Sources with equal keys are
+ * expected to produce the same image, the key is used for caching.
+ *
+ * File sources, and file:// URIs, memory map their file instead of reading
+ * it. The mapping is shared by all the sources of the same file, and decoding
+ * from it reads the page cache directly. Region decoders don't use the
+ * mapping, they read the file through their own descriptor.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public abstract class ImageSource {
+
+    private static final String LOG_TAG = "ImageSource";
+
+    /**
+     * How many file mappings are kept for reuse. They only take address space,
+     * the pages are the page cache's.
+     */
+    private static final int MAX_MAPPINGS = 8;
+
+    // Mappings of the files opened by file sources, by path, least recently
+    // used first
+    private static final LinkedHashMap<String, FileMapping> mappings =
+            new LinkedHashMap<String, FileMapping>(MAX_MAPPINGS, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FileMapping> eldest) {
+                    return size() > MAX_MAPPINGS;
+                }
+            };
+
+    /**
+     * @return A key which identifies the image, used for caching.
+     */
+    public abstract String getKey();
+
+    /**
+     * Opens a new stream of the encoded image. The caller closes it.
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * Returns the encoded image mapped into memory, if the source can map it.
+     * The returned buffer is read only and positioned at the start of the
+     * data. Mapped images are decoded from the mapping and not copied into
+     * the {@link EncodedImageCache}.
+     *
+     * @return The mapping, or null if the source can't be mapped.
+     */
+    public ByteBuffer map() throws IOException {
+        return null;
+    }
+
+    /**
+     * Creates a decoder of regions of the image. Needs API 10.
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    public BitmapRegionDecoder newRegionDecoder() throws IOException {
+        final InputStream stream = openStream();
+        try {
+            return BitmapRegionDecoder.newInstance(stream, false);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Reads the orientation the image has to be shown in, one of the
+     * ExifInterface.ORIENTATION_ constants. Called on a background thread.
+     */
+    public int getOrientation() {
+        return ExifInterface.ORIENTATION_NORMAL;
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+
+    public static ImageSource fromResource(Resources resources, int resId) {
+        return new ResourceSource(resources, resId);
+    }
+
+    public static ImageSource fromFile(File file) {
+        return new FileSource(file);
+    }
+
+    public static ImageSource fromUri(ContentResolver contentResolver, Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && (uri.getPath() != null)) {
+            // Mapped like any other file
+            return new FileSource(new File(uri.getPath()));
+        }
+        return new UriSource(contentResolver, uri);
+    }
+
+    private static class ResourceSource extends ImageSource {
+        private final Resources resources;
+        private final int resId;
+
+        public ResourceSource(Resources resources, int resId) {
+            this.resources = resources;
+            this.resId = resId;
+        }
+
+        @Override
+        public String getKey() {
+            return "res:" + resId;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return resources.openRawResource(resId);
+        }
+    }
+
+    private static class FileSource extends ImageSource {
+        private final File file;
+
+        public FileSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public String getKey() {
+            return "file:" + file.getAbsolutePath();
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            final ByteBuffer mapping = map();
+            return (mapping != null) ? EncodedImageCache.openStream(mapping)
+                    : new FileInputStream(file);
+        }
+
+        @Override
+        public ByteBuffer map() throws IOException {
+            return mapFile(file);
+        }
+
+        @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+        @Override
+        public BitmapRegionDecoder newRegionDecoder() throws IOException {
+            final FileInputStream stream = new FileInputStream(file);
+            try {
+                // Shareable, so the decoder reads from its own copy of the
+                // descriptor instead of copying the file into memory. A
+                // decoder created from the mapping would copy it.
+                return BitmapRegionDecoder.newInstance(stream.getFD(), true);
+            } finally {
+                stream.close();
+            }
+        }
+
+        @Override
+        public int getOrientation() {
+            return readExifOrientation(file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * A file mapped into memory, and the state of the file when it was mapped.
+     * Java can't unmap a file explicitly: an evicted mapping is unmapped by
+     * the garbage collector, once no decode holds a duplicate of it any more.
+     */
+    private static class FileMapping {
+        final ByteBuffer buffer;
+        final long length;
+        final long lastModified;
+
+        public FileMapping(ByteBuffer buffer, long length, long lastModified) {
+            this.buffer = buffer;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Returns the shared mapping of the file, mapping it if it isn't mapped or
+     * has changed since.
+     *
+     * @return A read only duplicate of the mapping, or null if the file is too
+     *         large to be mapped.
+     */
+    private static ByteBuffer mapFile(File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        if (length > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        synchronized (mappings) {
+            final FileMapping mapping = mappings.get(path);
+            if ((mapping != null) && (mapping.length == length)
+                    && (mapping.lastModified == lastModified)) {
+                return mapping.buffer.duplicate();
+            }
+        }
+
+        final FileInputStream stream = new FileInputStream(file);
+        final ByteBuffer buffer;
+        try {
+            // The mapping stays valid after the channel is closed
+            buffer = stream.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length)
+                    .asReadOnlyBuffer();
+        } finally {
+            stream.close();
+        }
+
+        synchronized (mappings) {
+            mappings.put(path, new FileMapping(buffer, length, lastModified));
+        }
+        return buffer.duplicate();
+    }
+
+    private static class UriSource extends ImageSource {
+        private final ContentResolver contentResolver;
+        private final Uri uri;
+
+        public UriSource(ContentResolver contentResolver, Uri uri) {
+            this.contentResolver = contentResolver;
+            this.uri = uri;
+        }
+
+        @Override
+        public String getKey() {
+            return uri.toString();
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            final InputStream stream = contentResolver.openInputStream(uri);
+            if (stream == null) {
+                throw new IOException("Unable to open " + uri);
+            }
+            return stream;
+        }
+
+        @Override
+        public int getOrientation() {
+            if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+                return ExifInterface.ORIENTATION_NORMAL;
+            }
+
+            // The media store keeps the rotation of the images it knows
+            Cursor cursor = null;
+            try {
+                cursor = contentResolver.query(uri, new String[] {
+                    MediaStore.Images.ImageColumns.ORIENTATION
+                }, null, null, null);
+                if ((cursor != null) && cursor.moveToFirst()) {
+                    switch (cursor.getInt(0)) {
+                        case 90:
+                            return ExifInterface.ORIENTATION_ROTATE_90;
+                        case 180:
+                            return ExifInterface.ORIENTATION_ROTATE_180;
+                        case 270:
+                            return ExifInterface.ORIENTATION_ROTATE_270;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Not a media store image, it has no orientation column
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    private static int readExifOrientation(String path) {
+        try {
+            return new ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to read the orientation of " + path, e);
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+}
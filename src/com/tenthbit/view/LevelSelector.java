@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+/**
+ * Chooses the sample size an image should be decoded at for the scale it is
+ * shown at. A level is a power of two sample size, and the selected level only
+ * changes once the scale has clearly crossed the boundary of the current one
+ * and stayed across it for a settle delay, so a pinch oscillating around a
+ * boundary doesn't decode the image again and again.
+ *
+ * Pure logic without any Android dependency, time is passed in by the caller.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class LevelSelector {
+
+    public static final float DEFAULT_HYSTERESIS = 0.25f;
+    public static final long DEFAULT_SETTLE_DELAY_MS = 150;
+
+    private final float hysteresis;
+    private final long settleDelayMs;
+
+    private int finestLevel = 1;
+    private int coarsestLevel = 1;
+    private int level = 1;
+    private int pendingLevel;
+    private long pendingSince;
+
+    public LevelSelector() {
+        this(DEFAULT_HYSTERESIS, DEFAULT_SETTLE_DELAY_MS);
+    }
+
+    /**
+     * @param hysteresis
+     *            - How far past a boundary the scale has to go before the
+     *            level changes, 0.25 means 25% past it.
+     * @param settleDelayMs
+     *            - How long the scale has to stay past the boundary.
+     */
+    public LevelSelector(float hysteresis, long settleDelayMs) {
+        if (hysteresis < 0) {
+            throw new IllegalArgumentException("hysteresis must not be negative");
+        }
+        this.hysteresis = hysteresis;
+        this.settleDelayMs = settleDelayMs;
+    }
+
+    /**
+     * Starts over at the given level.
+     *
+     * @param level
+     *            - The sample size currently shown.
+     * @param finestLevel
+     *            - The smallest sample size which may be selected.
+     * @param coarsestLevel
+     *            - The largest sample size which may be selected.
+     */
+    public void reset(int level, int finestLevel, int coarsestLevel) {
+        this.finestLevel = finestLevel;
+        this.coarsestLevel = Math.max(finestLevel, coarsestLevel);
+        this.level = Math.min(Math.max(level, finestLevel), this.coarsestLevel);
+        pendingLevel = 0;
+    }
+
+    /**
+     * Selects a level right away, without waiting for the settle delay, e.g.
+     * for a scale an animation is known to end at.
+     */
+    public void setLevel(int level) {
+        this.level = Math.min(Math.max(level, finestLevel), coarsestLevel);
+        pendingLevel = 0;
+    }
+
+    /**
+     * Feeds the current scale to the selector.
+     *
+     * @param scale
+     *            - Screen pixels per pixel of the source image.
+     * @param timeMs
+     *            - The current time, in any monotonic time base.
+     * @return The selected sample size.
+     */
+    public int select(float scale, long timeMs) {
+        final int target = getTargetLevel(scale);
+
+        if (target == level) {
+            pendingLevel = 0;
+        } else if ((pendingLevel == 0) || ((pendingLevel < level) != (target < level))) {
+            // Crossing starts now, or has turned around
+            pendingLevel = target;
+            pendingSince = timeMs;
+        } else {
+            // Still going the same way, further levels don't restart the delay
+            pendingLevel = target;
+        }
+
+        if ((pendingLevel != 0) && ((timeMs - pendingSince) >= settleDelayMs)) {
+            level = pendingLevel;
+            pendingLevel = 0;
+        }
+        return level;
+    }
+
+    /**
+     * @return The level the scale has crossed into, with hysteresis, ignoring
+     *         the settle delay.
+     */
+    int getTargetLevel(float scale) {
+        int target = level;
+
+        // Finer while a pixel of the level covers clearly more than one screen
+        // pixel
+        while ((target > finestLevel) && ((target * scale) > (1 + hysteresis))) {
+            target /= 2;
+        }
+        // Coarser while a pixel of the next level would still cover clearly
+        // less than one screen pixel
+        while ((target < coarsestLevel) && ((2 * target * scale * (1 + hysteresis)) < 1)) {
+            target *= 2;
+        }
+        return target;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return true if the scale has crossed into another level and is waiting
+     *         for the settle delay, see {@link #getSettleTime()}.
+     */
+    public boolean isSettling() {
+        return pendingLevel != 0;
+    }
+
+    /**
+     * @return When the pending level will be selected if the scale doesn't
+     *         change meanwhile. Call {@link #select(float, long)} again then.
+     */
+    public long getSettleTime() {
+        return pendingSince + settleDelayMs;
+    }
+}
@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+
+/**
+ * Writes a region of an image at full resolution as a PNG. The region is
+ * decoded and encoded in strips of rows, so the memory used is bounded by the
+ * width of the region, not its size: exporting a 100 megapixel crop takes a
+ * few megabytes. The orientation of the image is applied to the output.
+ * Opaque images are written without an alpha channel.
+ *
+ * Exporting does I/O and takes a while, don't call it from the UI thread. See
+ * {@link ZoomImageView#exportVisibleRegion(ImageSource, OutputStream,
+ * OnExportFinishedListener)} for exporting what a view shows in the
+ * background. Needs API 10.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+public class RegionExporter {
+
+    /**
+     * Interface definition for a callback to be invoked when an export is
+     * finished.
+     */
+    public static interface OnExportFinishedListener {
+        /**
+         * @param error
+         *            - Why the export failed, e.g. an IOException or an
+         *            OutOfMemoryError, null if it succeeded.
+         */
+        public void onExportFinished(Throwable error);
+    }
+
+    /**
+     * Pixels decoded per strip, the strip height follows from the width.
+     */
+    private static final int STRIP_PIXELS = 1024 * 1024;
+
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+    private static final byte[] PNG_SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    private RegionExporter() {
+    }
+
+    /**
+     * Writes the region of the image as a PNG. The stream isn't closed.
+     *
+     * @param source
+     *            - The image.
+     * @param region
+     *            - The region in source pixels, before the orientation.
+     * @param orientation
+     *            - The orientation to write the region in, one of the
+     *            ExifInterface.ORIENTATION_ constants.
+     * @param out
+     *            - Where to write the PNG.
+     */
+    public static void writePng(ImageSource source, Rect region, int orientation,
+            OutputStream out) throws IOException {
+        final BitmapRegionDecoder decoder = source.newRegionDecoder();
+        if (decoder == null) {
+            throw new IOException("Unable to decode " + source);
+        }
+
+        try {
+            final Rect bounds = new Rect(0, 0, decoder.getWidth(), decoder.getHeight());
+            final Rect crop = new Rect(region);
+            if (!crop.intersect(bounds) || crop.isEmpty()) {
+                throw new IOException("The region is outside of " + source);
+            }
+            writePng(decoder, crop, orientation, out);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    private static void writePng(BitmapRegionDecoder decoder, Rect crop, int orientation,
+            OutputStream out) throws IOException {
+        final boolean isTransposed = ZoomImageView.isTransposed(orientation);
+        final int width = isTransposed ? crop.height() : crop.width();
+        final int height = isTransposed ? crop.width() : crop.height();
+
+        // Maps the crop to the output, and back
+        final Matrix orientationMatrix = new Matrix();
+        ZoomImageView.setOrientationMatrix(orientationMatrix, orientation, crop.width(),
+                crop.height());
+        final Matrix inverse = new Matrix();
+        orientationMatrix.invert(inverse);
+
+        final DataOutputStream data = new DataOutputStream(out);
+        data.write(PNG_SIGNATURE);
+
+        final int stripHeight = Math.max(1, Math.min(height, STRIP_PIXELS / width));
+        final Matrix drawMatrix = new Matrix();
+        final RectF stripRect = new RectF();
+        final Rect regionRect = new Rect();
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        final int[] pixels = new int[width];
+        // Known once the first strip is decoded, RGB without alpha if opaque
+        int bytesPerPixel = 0;
+        byte[] raw = null, prior = null, sub = null, up = null;
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        final DeflaterOutputStream idat = new DeflaterOutputStream(new IdatOutputStream(data),
+                deflater, IDAT_CHUNK_SIZE);
+
+        Bitmap strip = null;
+        try {
+            strip = Bitmap.createBitmap(width, stripHeight, Bitmap.Config.ARGB_8888);
+            final Canvas canvas = new Canvas(strip);
+
+            for (int top = 0; top < height; top += stripHeight) {
+                final int rows = Math.min(stripHeight, height - top);
+
+                // The part of the crop which ends up in this strip
+                stripRect.set(0, top, width, top + rows);
+                inverse.mapRect(stripRect);
+                stripRect.roundOut(regionRect);
+                regionRect.offset(crop.left, crop.top);
+                regionRect.intersect(crop);
+
+                final Bitmap region = decoder.decodeRegion(regionRect, options);
+                if (region == null) {
+                    throw new IOException("Unable to decode " + regionRect);
+                }
+                try {
+                    if (bytesPerPixel == 0) {
+                        // JPEGs and opaque PNGs are written without alpha
+                        bytesPerPixel = region.hasAlpha() ? 4 : 3;
+                        writeHeader(data, width, height, bytesPerPixel == 4);
+                        raw = new byte[width * bytesPerPixel];
+                        prior = new byte[raw.length];
+                        sub = new byte[1 + raw.length];
+                        up = new byte[1 + raw.length];
+                    }
+
+                    drawMatrix.setTranslate(regionRect.left - crop.left, regionRect.top
+                            - crop.top);
+                    drawMatrix.postConcat(orientationMatrix);
+                    drawMatrix.postTranslate(0, -top);
+                    strip.eraseColor(0);
+                    canvas.drawBitmap(region, drawMatrix, null);
+                } finally {
+                    region.recycle();
+                }
+
+                for (int y = 0; y < rows; y++) {
+                    strip.getPixels(pixels, 0, width, 0, y, width, 1);
+                    int i = 0;
+                    for (int x = 0; x < width; x++) {
+                        final int color = pixels[x];
+                        raw[i++] = (byte) (color >> 16);
+                        raw[i++] = (byte) (color >> 8);
+                        raw[i++] = (byte) color;
+                        if (bytesPerPixel == 4) {
+                            raw[i++] = (byte) (color >>> 24);
+                        }
+                    }
+
+                    idat.write(filterRow(raw, prior, bytesPerPixel, sub, up));
+                    final byte[] swap = prior;
+                    prior = raw;
+                    raw = swap;
+                }
+            }
+            idat.finish();
+            idat.flush();
+        } finally {
+            deflater.end();
+            if (strip != null) {
+                strip.recycle();
+            }
+        }
+
+        writeChunk(data, "IEND", new byte[0], 0);
+        data.flush();
+    }
+
+    /**
+     * Filters a row with the Sub or the Up filter, whichever gives the
+     * smaller sum of absolute differences, as most PNG encoders do. Smaller
+     * differences compress better.
+     *
+     * @param prior
+     *            - The previous row, zeros for the first row.
+     * @return sub or up, starting with the filter type.
+     */
+    private static byte[] filterRow(byte[] raw, byte[] prior, int bytesPerPixel, byte[] sub,
+            byte[] up) {
+        sub[0] = 1;
+        up[0] = 2;
+        long subSum = 0, upSum = 0;
+        for (int i = 0; i < raw.length; i++) {
+            final int left = (i >= bytesPerPixel) ? raw[i - bytesPerPixel] : 0;
+            final byte subByte = (byte) (raw[i] - left);
+            final byte upByte = (byte) (raw[i] - prior[i]);
+            sub[i + 1] = subByte;
+            up[i + 1] = upByte;
+            // The bytes as signed differences
+            subSum += Math.abs(subByte);
+            upSum += Math.abs(upByte);
+        }
+        return (subSum <= upSum) ? sub : up;
+    }
+
+    private static void writeHeader(DataOutputStream data, int width, int height,
+            boolean hasAlpha) throws IOException {
+        final byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // Bits per channel
+        header[9] = (byte) (hasAlpha ? 6 : 2); // RGBA or RGB
+        // Default compression, filtering and no interlacing
+        writeChunk(data, "IHDR", header, header.length);
+    }
+
+    private static void writeChunk(DataOutputStream data, String type, byte[] content,
+            int length) throws IOException {
+        final byte[] typeBytes = type.getBytes("US-ASCII");
+        final CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(content, 0, length);
+
+        data.writeInt(length);
+        data.write(typeBytes);
+        data.write(content, 0, length);
+        data.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects the compressed image data into IDAT chunks.
+     */
+    private static class IdatOutputStream extends OutputStream {
+        private final DataOutputStream data;
+        private final byte[] buffer = new byte[IDAT_CHUNK_SIZE];
+        private int length;
+
+        public IdatOutputStream(DataOutputStream data) {
+            this.data = data;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            if (length == buffer.length) {
+                flushChunk();
+            }
+            buffer[length++] = (byte) oneByte;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                if (length == buffer.length) {
+                    flushChunk();
+                }
+                final int copied = Math.min(count, buffer.length - length);
+                System.arraycopy(bytes, offset, buffer, length, copied);
+                length += copied;
+                offset += copied;
+                count -= copied;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (length > 0) {
+                writeChunk(data, "IDAT", buffer, length);
+                length = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+
+/**
+ * A BitmapDrawable holding a smaller copy of a bigger image. It reports the
+ * size of the original image as its intrinsic size and stretches the bitmap
+ * over those bounds, so the ZoomImageView matrices, getDisplayRect() and tap
+ * coordinates stay in original image space.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class SampledBitmapDrawable extends BitmapDrawable {
+
+    private final int sourceWidth;
+    private final int sourceHeight;
+
+    public SampledBitmapDrawable(Resources res, Bitmap bitmap, int sourceWidth, int sourceHeight) {
+        super(res, bitmap);
+
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+    }
+
+    /**
+     * @return How many source pixels one bitmap pixel covers, 1 when the
+     *         bitmap is not downsampled at all.
+     */
+    public float getSampleScale() {
+        final Bitmap bitmap = getBitmap();
+        if ((bitmap == null) || (bitmap.getWidth() == 0)) {
+            return 1f;
+        }
+        return (float) sourceWidth / bitmap.getWidth();
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return sourceWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return sourceHeight;
+    }
+}
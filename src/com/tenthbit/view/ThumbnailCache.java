@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Square thumbnails of the images read by a {@link ZoomImageLoader}, packed
+ * into the cells of a few large RGB_565 bitmaps. The loader makes a
+ * thumbnail of every image it decodes anyway, so showing them, e.g. in a
+ * {@link ZoomFilmstripView}, takes no decoding of its own, and drawing
+ * hundreds of them only draws from a handful of bitmaps.
+ *
+ * The least recently drawn thumbnail is replaced once the cache is full. It
+ * takes cellSize * cellSize * 2 bytes per thumbnail, allocated a page of
+ * cells at a time.
+ *
+ * All the methods have to be called from the UI thread.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class ThumbnailCache {
+
+    /**
+     * Interface definition for a callback to be invoked when a thumbnail has
+     * been added or removed.
+     */
+    public static interface OnThumbnailsChangedListener {
+        /**
+         * @param key
+         *            - The key of the image, see {@link ImageSource#getKey()}.
+         */
+        public void onThumbnailAdded(String key);
+
+        /**
+         * Called when a thumbnail has been replaced by a newer one, or the
+         * cache has been cleared.
+         *
+         * @param key
+         *            - The key of the image, see {@link ImageSource#getKey()}.
+         */
+        public void onThumbnailRemoved(String key);
+    }
+
+    private static final int PAGE_SIZE = 1024;
+
+    private final int cellSize;
+    private final int maxThumbnails;
+    private final int cellsPerRow;
+    private final int cellsPerPage;
+
+    private final ArrayList<Bitmap> pages = new ArrayList<Bitmap>();
+    private final ArrayList<Canvas> pageCanvases = new ArrayList<Canvas>();
+    // In the order of use, the eldest is replaced first
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final ArrayList<OnThumbnailsChangedListener> listeners =
+            new ArrayList<OnThumbnailsChangedListener>();
+
+    private final Matrix drawMatrix = new Matrix();
+    private final Rect cellRect = new Rect();
+    private final Rect cellBounds = new Rect();
+
+    /**
+     * @param cellSize
+     *            - The width and height of the thumbnails, in pixels.
+     * @param maxThumbnails
+     *            - How many thumbnails are kept.
+     */
+    public ThumbnailCache(int cellSize, int maxThumbnails) {
+        if ((cellSize <= 0) || (cellSize > PAGE_SIZE)) {
+            throw new IllegalArgumentException("cellSize must be in 1.." + PAGE_SIZE);
+        }
+        if (maxThumbnails <= 0) {
+            throw new IllegalArgumentException("maxThumbnails must be positive");
+        }
+        this.cellSize = cellSize;
+        this.maxThumbnails = maxThumbnails;
+        cellsPerRow = PAGE_SIZE / cellSize;
+        cellsPerPage = Math.min(cellsPerRow * cellsPerRow, maxThumbnails);
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public void addOnThumbnailsChangedListener(OnThumbnailsChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnThumbnailsChangedListener(OnThumbnailsChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Draws the thumbnail of the image, in its orientation.
+     *
+     * @param key
+     *            - The key of the image, see {@link ImageSource#getKey()}.
+     * @param dst
+     *            - Where to draw, should be square.
+     * @param paint
+     *            - Used to draw, may be null.
+     * @return false if there is no thumbnail of the image.
+     */
+    public boolean draw(Canvas canvas, String key, RectF dst, Paint paint) {
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+
+        getCellRect(entry.cell, cellRect);
+        cellBounds.set(0, 0, cellSize, cellSize);
+        ZoomImageView.setOrientationMatrix(drawMatrix, entry.orientation, cellSize, cellSize);
+        drawMatrix.postScale(dst.width() / cellSize, dst.height() / cellSize);
+        drawMatrix.postTranslate(dst.left, dst.top);
+
+        final int saveCount = canvas.save();
+        canvas.concat(drawMatrix);
+        canvas.drawBitmap(pages.get(entry.cell / cellsPerPage), cellRect, cellBounds, paint);
+        canvas.restoreToCount(saveCount);
+        return true;
+    }
+
+    /**
+     * Drops all the thumbnails and frees the pages.
+     */
+    public void clear() {
+        final ArrayList<String> keys = new ArrayList<String>(entries.keySet());
+        entries.clear();
+        for (Bitmap page : pages) {
+            page.recycle();
+        }
+        pages.clear();
+        pageCanvases.clear();
+
+        for (String key : keys) {
+            dispatchRemoved(key);
+        }
+    }
+
+    /**
+     * Makes a thumbnail of a decoded image, on any thread: the largest
+     * centered square of the image, scaled to the cell size. The orientation
+     * is applied when drawing.
+     */
+    Bitmap createThumbnail(Bitmap bitmap) {
+        final int width = bitmap.getWidth(), height = bitmap.getHeight();
+        final int size = Math.min(width, height);
+        final int left = (width - size) / 2, top = (height - size) / 2;
+
+        final Bitmap thumbnail = Bitmap.createBitmap(cellSize, cellSize, Bitmap.Config.RGB_565);
+        new Canvas(thumbnail).drawBitmap(bitmap, new Rect(left, top, left + size, top + size),
+                new Rect(0, 0, cellSize, cellSize), new Paint(Paint.FILTER_BITMAP_FLAG));
+        return thumbnail;
+    }
+
+    /**
+     * Copies a thumbnail made by {@link #createThumbnail(Bitmap)} into a cell.
+     * The thumbnail can be recycled afterwards.
+     */
+    void put(String key, Bitmap thumbnail, int orientation) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            int cell = entries.size();
+            if (cell == maxThumbnails) {
+                // Reuse the cell of the least recently drawn one
+                final Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+                final Map.Entry<String, Entry> evicted = eldest.next();
+                cell = evicted.getValue().cell;
+                eldest.remove();
+                dispatchRemoved(evicted.getKey());
+            }
+            entry = new Entry(cell);
+            entries.put(key, entry);
+        }
+        entry.orientation = orientation;
+
+        final int page = entry.cell / cellsPerPage;
+        while (pages.size() <= page) {
+            final int rows = (cellsPerPage + cellsPerRow - 1) / cellsPerRow;
+            final Bitmap bitmap = Bitmap.createBitmap(Math.min(cellsPerPage, cellsPerRow)
+                    * cellSize, rows * cellSize, Bitmap.Config.RGB_565);
+            pages.add(bitmap);
+            pageCanvases.add(new Canvas(bitmap));
+        }
+        getCellRect(entry.cell, cellRect);
+        pageCanvases.get(page).drawBitmap(thumbnail, cellRect.left, cellRect.top, null);
+
+        for (int i = listeners.size() - 1; i >= 0; i--) {
+            listeners.get(i).onThumbnailAdded(key);
+        }
+    }
+
+    private void dispatchRemoved(String key) {
+        for (int i = listeners.size() - 1; i >= 0; i--) {
+            listeners.get(i).onThumbnailRemoved(key);
+        }
+    }
+
+    private void getCellRect(int cell, Rect out) {
+        final int index = cell % cellsPerPage;
+        final int left = (index % cellsPerRow) * cellSize;
+        final int top = (index / cellsPerRow) * cellSize;
+        out.set(left, top, left + cellSize, top + cellSize);
+    }
+
+    private static class Entry {
+        final int cell;
+        int orientation;
+
+        public Entry(int cell) {
+            this.cell = cell;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draws what a ZoomImageView is doing on top of it: the outline of the
+ * decoded image coloured by its sample level, the state of its decode, the
+ * scale, the encoded cache usage and a graph of the last animation frame
+ * times recorded by the {@link ZoomImageMetrics} of the view. Only
+ * created when enabled with {@link ZoomImageView#setDebugOverlayEnabled(boolean)}.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+class ZoomDebugOverlay {
+
+    /**
+     * Outline colours for the sample sizes 1, 2, 4, 8 and anything coarser.
+     */
+    private static final int[] LEVEL_COLORS = {
+            Color.GREEN, Color.CYAN, Color.YELLOW, 0xFFFF8800, Color.RED
+    };
+
+    private final float density;
+    private final Paint outlinePaint = new Paint();
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint backgroundPaint = new Paint();
+    private final Paint graphPaint = new Paint();
+    private final StringBuilder text = new StringBuilder();
+    private final Matrix drawnMatrix = new Matrix();
+    private final RectF drawnRect = new RectF();
+
+    private final long[] frameNanos = new long[ZoomImageMetrics.RECENT_FRAMES];
+
+    public ZoomDebugOverlay(float density) {
+        this.density = density;
+
+        outlinePaint.setStyle(Paint.Style.STROKE);
+        outlinePaint.setStrokeWidth(2 * density);
+
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(12 * density);
+
+        backgroundPaint.setColor(0x99000000);
+    }
+
+    public void draw(Canvas canvas, ZoomImageView view) {
+        final Drawable d = view.getDrawable();
+        // Read as drawn, getDisplayRect() could move the image mid-fling
+        final RectF rect = drawnRect;
+        int sampleSize = 1;
+        float bitmapScale = 0f;
+        if (view.getDrawnRect(drawnMatrix, rect)) {
+            if (d instanceof SampledBitmapDrawable) {
+                sampleSize = Math.round(((SampledBitmapDrawable) d).getSampleScale());
+            }
+            outlinePaint.setColor(LEVEL_COLORS[Math.min(levelOf(sampleSize),
+                    LEVEL_COLORS.length - 1)]);
+            canvas.drawRect(rect, outlinePaint);
+
+            if (d instanceof BitmapDrawable) {
+                final Bitmap bitmap = ((BitmapDrawable) d).getBitmap();
+                if ((bitmap != null) && (bitmap.getWidth() > 0)) {
+                    // Screen pixels per bitmap pixel, above 1 means blurry
+                    bitmapScale = rect.width()
+                            / (view.isTransposed() ? bitmap.getHeight() : bitmap.getWidth());
+                }
+            }
+        }
+
+        final float lineHeight = 16 * density;
+        final float left = 8 * density;
+        float top = 8 * density;
+        canvas.drawRect(0, 0, canvas.getWidth(), top + (lineHeight * 3) + (40 * density),
+                backgroundPaint);
+
+        text.setLength(0);
+        text.append("scale ").append(round(view.getScale())).append("x  sample 1/")
+                .append(sampleSize).append("  screen px per bitmap px ")
+                .append(round(bitmapScale));
+        top += lineHeight;
+        canvas.drawText(text, 0, text.length(), left, top, textPaint);
+
+        text.setLength(0);
+        final ZoomImageLoader loader = view.imageLoader;
+        if (loader != null) {
+            final EncodedImageCache cache = loader.getCache();
+            text.append("cache ").append(cache.size() / 1024).append(" / ")
+                    .append(cache.maxSize() / 1024).append(" KB  decode ");
+            switch (loader.getLoadState(view)) {
+                case ZoomImageLoader.STATE_QUEUED:
+                    text.append("pending");
+                    break;
+                case ZoomImageLoader.STATE_DECODING:
+                    text.append("in flight");
+                    break;
+                case ZoomImageLoader.STATE_DELIVERING:
+                    text.append("waiting for frame");
+                    break;
+                case ZoomImageLoader.STATE_FAILED:
+                    text.append("failed");
+                    break;
+                default:
+                    text.append("idle");
+                    break;
+            }
+        } else {
+            text.append("no loader");
+        }
+        top += lineHeight;
+        canvas.drawText(text, 0, text.length(), left, top, textPaint);
+
+        final ZoomImageMetrics metrics = view.getMetrics();
+        final int frames = (metrics != null) ? metrics.getRecentFrameNanos(frameNanos) : 0;
+        drawFrameGraph(canvas, frames, left, top + (8 * density), 36 * density);
+    }
+
+    /**
+     * Draws the last animation frame times as bars, red when longer than a
+     * frame interval. The full height is two frame intervals. Empty without
+     * metrics set on the view.
+     */
+    private void drawFrameGraph(Canvas canvas, int frames, float left, float top,
+            float height) {
+        final float barWidth = 3 * density;
+        final float bottom = top + height;
+        for (int i = 0; i < frames; i++) {
+            final long nanos = frameNanos[i];
+            final float barHeight = Math.min(height, (height * nanos)
+                    / (2f * ZoomImageMetrics.FRAME_INTERVAL_NANOS));
+            graphPaint.setColor(nanos > ZoomImageMetrics.FRAME_INTERVAL_NANOS ? Color.RED
+                    : Color.GREEN);
+            final float x = left + (i * barWidth);
+            canvas.drawRect(x, bottom - barHeight, x + barWidth - 1, bottom, graphPaint);
+        }
+
+        // The frame interval line
+        graphPaint.setColor(Color.WHITE);
+        canvas.drawLine(left, top + (height / 2),
+                left + (ZoomImageMetrics.RECENT_FRAMES * barWidth),
+                top + (height / 2), graphPaint);
+    }
+
+    private static int levelOf(int sampleSize) {
+        int level = 0;
+        while (sampleSize > 1) {
+            sampleSize /= 2;
+            level++;
+        }
+        return level;
+    }
+
+    private static float round(float value) {
+        return Math.round(value * 100) / 100f;
+    }
+}
@@ -0,0 +1,421 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import java.util.HashSet;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.widget.Scroller;
+
+import com.tenthbit.view.ThumbnailCache.OnThumbnailsChangedListener;
+
+/**
+ * A horizontal strip of square thumbnails, e.g. next to a ZoomViewPager. The
+ * thumbnails are drawn from the {@link ThumbnailCache} of the pager's
+ * {@link ZoomImageLoader}, so the strip doesn't decode anything itself and
+ * scrolls through hundreds of items drawing from a handful of bitmaps.
+ *
+ * Items scrolled into view without a thumbnail yet are prefetched through
+ * the loader, behind its loads: this reads ahead the pages the user is
+ * likely to open, and makes their thumbnails on the way.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class ZoomFilmstripView extends View implements OnThumbnailsChangedListener {
+
+    /**
+     * Provides the images of the strip.
+     */
+    public static interface Adapter {
+        public int getCount();
+
+        public ImageSource getSource(int position);
+    }
+
+    /**
+     * Interface definition for a callback to be invoked when an item is
+     * tapped.
+     */
+    public static interface OnItemClickListener {
+        public void onItemClick(ZoomFilmstripView view, int position);
+    }
+
+    private static final float DEFAULT_HEIGHT_DIP = 64f;
+    private static final float SPACING_DIP = 4f;
+    private static final float SELECTION_STROKE_DIP = 2f;
+
+    private final int defaultHeight;
+    private final int spacing;
+    private final Scroller scroller;
+    private final int touchSlop;
+    private final int minimumFlingVelocity;
+    private final int maximumFlingVelocity;
+
+    private final Paint thumbnailPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint placeholderPaint = new Paint();
+    private final Paint selectionPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF itemRect = new RectF();
+
+    private ZoomImageLoader imageLoader;
+    private ThumbnailCache thumbnails;
+    private boolean isAttached;
+    private Adapter adapter;
+    private OnItemClickListener itemClickListener;
+
+    // Read from the adapter once, not on every draw
+    private ImageSource[] sources = new ImageSource[0];
+    private String[] keys = new String[0];
+    private final HashSet<String> prefetchedKeys = new HashSet<String>();
+    private int prefetchedFirst = -1, prefetchedLast = -1;
+
+    private int selection = -1;
+
+    private VelocityTracker velocityTracker;
+    private float downX, lastX;
+    private boolean isDragging;
+
+    public ZoomFilmstripView(Context context) {
+        this(context, null);
+    }
+
+    public ZoomFilmstripView(Context context, AttributeSet attr) {
+        this(context, attr, 0);
+    }
+
+    public ZoomFilmstripView(Context context, AttributeSet attr, int defStyle) {
+        super(context, attr, defStyle);
+
+        final float density = getResources().getDisplayMetrics().density;
+        defaultHeight = (int) ((DEFAULT_HEIGHT_DIP * density) + 0.5f);
+        spacing = (int) ((SPACING_DIP * density) + 0.5f);
+
+        scroller = new Scroller(context);
+        final ViewConfiguration configuration = ViewConfiguration.get(context);
+        touchSlop = configuration.getScaledTouchSlop();
+        minimumFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        maximumFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+
+        placeholderPaint.setColor(0xFF333333);
+        selectionPaint.setColor(0xFFFFFFFF);
+        selectionPaint.setStyle(Paint.Style.STROKE);
+        selectionPaint.setStrokeWidth(SELECTION_STROKE_DIP * density);
+    }
+
+    /**
+     * Sets the loader whose thumbnails are shown, it needs a thumbnail cache,
+     * see {@link ZoomImageLoader#setThumbnailCache(ThumbnailCache)}.
+     */
+    public void setImageLoader(ZoomImageLoader imageLoader) {
+        final ThumbnailCache cache = imageLoader.getThumbnailCache();
+        if (cache == null) {
+            throw new IllegalArgumentException("The loader has no thumbnail cache");
+        }
+
+        if (isAttached && (thumbnails != null)) {
+            thumbnails.removeOnThumbnailsChangedListener(this);
+        }
+        this.imageLoader = imageLoader;
+        thumbnails = cache;
+        if (isAttached) {
+            thumbnails.addOnThumbnailsChangedListener(this);
+        }
+
+        resetPrefetch();
+        invalidate();
+    }
+
+    public void setAdapter(Adapter adapter) {
+        this.adapter = adapter;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Reads the items from the adapter again.
+     */
+    public void notifyDataSetChanged() {
+        final int count = (adapter != null) ? adapter.getCount() : 0;
+        sources = new ImageSource[count];
+        keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            sources[i] = adapter.getSource(i);
+            keys[i] = sources[i].getKey();
+        }
+
+        if (selection >= count) {
+            selection = -1;
+        }
+        scrollTo(Math.min(getScrollX(), getMaxScroll()), 0);
+        resetPrefetch();
+        invalidate();
+    }
+
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        itemClickListener = listener;
+    }
+
+    /**
+     * Highlights the item, e.g. the current page of the pager, and scrolls it
+     * to the middle of the strip.
+     *
+     * @param position
+     *            - The item, -1 for none.
+     */
+    public void setSelection(int position) {
+        selection = position;
+        if ((position >= 0) && (getWidth() > 0)) {
+            final int target = getCenteredScroll(position);
+            scroller.startScroll(getScrollX(), 0, target - getScrollX(), 0);
+        }
+        invalidate();
+    }
+
+    public int getSelection() {
+        return selection;
+    }
+
+    @Override
+    public void onThumbnailAdded(String key) {
+        invalidate();
+    }
+
+    @Override
+    public void onThumbnailRemoved(String key) {
+        // Prefetched again the next time it is scrolled into view
+        prefetchedKeys.remove(key);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        isAttached = true;
+        if (thumbnails != null) {
+            thumbnails.addOnThumbnailsChangedListener(this);
+            // Thumbnails may have been removed while not listening
+            resetPrefetch();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        isAttached = false;
+        if (thumbnails != null) {
+            thumbnails.removeOnThumbnailsChangedListener(this);
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+                resolveSize(defaultHeight + getPaddingTop() + getPaddingBottom(),
+                        heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+
+        scroller.forceFinished(true);
+        scrollTo((selection >= 0) ? getCenteredScroll(selection) : Math.min(getScrollX(),
+                getMaxScroll()), 0);
+        prefetchVisible();
+    }
+
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+        super.onScrollChanged(l, t, oldl, oldt);
+        prefetchVisible();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        final int itemSize = getItemSize();
+        if ((itemSize <= 0) || (keys.length == 0)) {
+            return;
+        }
+
+        final int last = getLastVisible();
+        final float halfStroke = selectionPaint.getStrokeWidth() / 2;
+        for (int i = getFirstVisible(); i <= last; i++) {
+            final int left = getPaddingLeft() + (i * (itemSize + spacing));
+            itemRect.set(left, getPaddingTop(), left + itemSize, getPaddingTop() + itemSize);
+
+            if ((thumbnails == null) || !thumbnails.draw(canvas, keys[i], itemRect,
+                    thumbnailPaint)) {
+                canvas.drawRect(itemRect, placeholderPaint);
+            }
+            if (i == selection) {
+                itemRect.inset(halfStroke, halfStroke);
+                canvas.drawRect(itemRect, selectionPaint);
+            }
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (velocityTracker == null) {
+            velocityTracker = VelocityTracker.obtain();
+        }
+        velocityTracker.addMovement(event);
+
+        final float x = event.getX();
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_DOWN:
+                scroller.forceFinished(true);
+                downX = lastX = x;
+                isDragging = false;
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                if (!isDragging && (Math.abs(x - downX) > touchSlop)) {
+                    isDragging = true;
+                    lastX = x;
+                    if (getParent() != null) {
+                        getParent().requestDisallowInterceptTouchEvent(true);
+                    }
+                }
+                if (isDragging) {
+                    scrollTo(clampScroll(getScrollX() + (int) (lastX - x)), 0);
+                    lastX = x;
+                }
+                break;
+
+            case MotionEvent.ACTION_UP:
+                if (isDragging) {
+                    velocityTracker.computeCurrentVelocity(1000, maximumFlingVelocity);
+                    final int velocity = (int) velocityTracker.getXVelocity();
+                    if (Math.abs(velocity) >= minimumFlingVelocity) {
+                        scroller.fling(getScrollX(), 0, -velocity, 0, 0, getMaxScroll(), 0, 0);
+                        invalidate();
+                    }
+                } else {
+                    final int position = getPositionAt(x);
+                    if ((position >= 0) && (itemClickListener != null)) {
+                        playSoundEffect(SoundEffectConstants.CLICK);
+                        itemClickListener.onItemClick(this, position);
+                    }
+                }
+                velocityTracker.recycle();
+                velocityTracker = null;
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                velocityTracker.recycle();
+                velocityTracker = null;
+                break;
+        }
+        return true;
+    }
+
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            scrollTo(scroller.getCurrX(), 0);
+            invalidate();
+        }
+    }
+
+    /**
+     * Prefetches the visible items which have no thumbnail yet, each once.
+     * Only runs when the visible range changes.
+     */
+    private void prefetchVisible() {
+        if ((imageLoader == null) || (getItemSize() <= 0)) {
+            return;
+        }
+
+        final int first = getFirstVisible(), last = getLastVisible();
+        if ((first == prefetchedFirst) && (last == prefetchedLast)) {
+            return;
+        }
+        prefetchedFirst = first;
+        prefetchedLast = last;
+
+        for (int i = first; i <= last; i++) {
+            if (!thumbnails.contains(keys[i]) && prefetchedKeys.add(keys[i])) {
+                imageLoader.prefetch(sources[i]);
+            }
+        }
+    }
+
+    private void resetPrefetch() {
+        prefetchedKeys.clear();
+        prefetchedFirst = prefetchedLast = -1;
+        prefetchVisible();
+    }
+
+    private int getItemSize() {
+        return getHeight() - getPaddingTop() - getPaddingBottom();
+    }
+
+    private int getFirstVisible() {
+        final int stride = getItemSize() + spacing;
+        return Math.max(0, (getScrollX() - getPaddingLeft()) / stride);
+    }
+
+    private int getLastVisible() {
+        final int stride = getItemSize() + spacing;
+        return Math.min(keys.length - 1, (getScrollX() + getWidth() - getPaddingLeft())
+                / stride);
+    }
+
+    /**
+     * @return The item at the x in view coordinates, -1 if there is none.
+     */
+    private int getPositionAt(float x) {
+        final int itemSize = getItemSize();
+        if (itemSize <= 0) {
+            return -1;
+        }
+
+        final int offset = (int) (x + getScrollX()) - getPaddingLeft();
+        final int position = offset / (itemSize + spacing);
+        if ((offset < 0) || (position >= keys.length)
+                || ((offset % (itemSize + spacing)) >= itemSize)) {
+            return -1;
+        }
+        return position;
+    }
+
+    private int getCenteredScroll(int position) {
+        final int itemSize = getItemSize();
+        final int center = getPaddingLeft() + (position * (itemSize + spacing)) + (itemSize / 2);
+        return clampScroll(center - (getWidth() / 2));
+    }
+
+    private int getMaxScroll() {
+        final int count = keys.length;
+        final int contentWidth = getPaddingLeft() + (count * (getItemSize() + spacing))
+                - ((count > 0) ? spacing : 0) + getPaddingRight();
+        return Math.max(0, contentWidth - getWidth());
+    }
+
+    private int clampScroll(int scrollX) {
+        return Math.min(Math.max(scrollX, 0), getMaxScroll());
+    }
+}
@@ -0,0 +1,1175 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.ImageView.ScaleType;
+
+/**
+ * Loads images into ZoomImageViews on a background thread. The encoded bytes
+ * of every image read are kept in an {@link EncodedImageCache}, and images are
+ * decoded from there at the sample size needed by the view. Images which can be
+ * memory mapped, see {@link ImageSource#map()}, are decoded from the mapping.
+ *
+ * Loads of the same image at the same sample size share a single decode,
+ * whether they are waiting or already decoding, and then share the decoded
+ * bitmap. Bitmaps delivered by the loader mustn't be recycled by the caller.
+ *
+ * When a loaded image is zoomed in past its sample size, it is decoded again
+ * at a finer sample size, chosen by a {@link LevelSelector}. The first,
+ * coarse bitmap is shown meanwhile and again when zooming back out.
+ *
+ * Decoded bitmaps are collected in a queue and handed to the views once per
+ * frame, within a byte budget per frame, see
+ * {@link #setMaxDeliveredBytesPerFrame(int)}. A burst of decodes then costs a
+ * single message and a single layout and draw of every view it updates, and
+ * doesn't upload all of its bitmaps in the same frame.
+ *
+ * With a {@link ThumbnailCache} set, every new image decoded also leaves its
+ * thumbnail in the cache.
+ *
+ * All the public methods have to be called from the UI thread.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class ZoomImageLoader {
+
+    private static final String LOG_TAG = "ZoomImageLoader";
+
+    /**
+     * Load states returned by {@link #getLoadState(ZoomImageView)}.
+     */
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_QUEUED = 1;
+    public static final int STATE_DECODING = 2;
+    public static final int STATE_DELIVERING = 3;
+    public static final int STATE_FAILED = 4;
+
+    /**
+     * Interface definition for a callback to be invoked when an image can't
+     * be loaded into a view.
+     */
+    public static interface OnLoadFailedListener {
+        /**
+         * @param error
+         *            - Why the load failed, e.g. an IOException or an
+         *            OutOfMemoryError.
+         */
+        public void onLoadFailed(ZoomImageView view, ImageSource source, Throwable error);
+    }
+
+    /**
+     * Share of the maximum heap size used by the default encoded image cache.
+     */
+    private static final int DEFAULT_CACHE_FRACTION = 8;
+
+    /**
+     * Default of {@link #setMaxDeliveredBytesPerFrame(int)}, one full HD
+     * ARGB_8888 bitmap.
+     */
+    private static final int DEFAULT_MAX_DELIVERED_BYTES_PER_FRAME = 1920 * 1080 * 4;
+
+    private static final long FRAME_DELAY_MS = 16;
+
+    /**
+     * Priorities of the background tasks, higher runs first.
+     */
+    private static final int PRIORITY_PREFETCH = 0;
+    private static final int PRIORITY_LOAD = 1;
+    private static final int PRIORITY_VISIBLE = 2;
+
+    /**
+     * Share of the maximum heap size a finer decode of an image may take.
+     */
+    private static final int REFINED_HEAP_FRACTION = 4;
+
+    private final Resources resources;
+    private final EncodedImageCache cache;
+    private final Handler mainHandler;
+    private final ThreadPoolExecutor executor;
+
+    // Decodes waiting or running, by decode key, guarded by itself
+    private final HashMap<String, DecodeTask> inFlight = new HashMap<String, DecodeTask>();
+
+    // Only touched from the UI thread
+    private final HashMap<ZoomImageView, LoadRequest> requests =
+            new HashMap<ZoomImageView, LoadRequest>();
+    private final WeakHashMap<ZoomImageView, String> shownKeys =
+            new WeakHashMap<ZoomImageView, String>();
+    private final HashMap<String, Drawable> retainedDrawables = new HashMap<String, Drawable>();
+    private final HashMap<String, Integer> retainedOrientations = new HashMap<String, Integer>();
+    private boolean isRetainedReleasePosted;
+    private final WeakHashMap<ZoomImageView, LevelState> levels =
+            new WeakHashMap<ZoomImageView, LevelState>();
+    private final ArrayList<LoadRequest> pendingDeliveries = new ArrayList<LoadRequest>();
+    private int maxDeliveredBytesPerFrame = DEFAULT_MAX_DELIVERED_BYTES_PER_FRAME;
+    private Object frameCallback;
+    private volatile ZoomImageMetrics metrics;
+    private OnLoadFailedListener loadFailedListener;
+    private volatile ThumbnailCache thumbnailCache;
+
+    // Filled by the background thread, drained by the next delivery frame
+    private final ConcurrentLinkedQueue<LoadRequest> decodedRequests =
+            new ConcurrentLinkedQueue<LoadRequest>();
+    private final AtomicBoolean isDeliveryScheduled = new AtomicBoolean();
+
+    private final Runnable releaseRetained = new Runnable() {
+        @Override
+        public void run() {
+            // Whatever hasn't been picked up by now belongs to pages which are
+            // not shown any more
+            retainedDrawables.clear();
+            retainedOrientations.clear();
+            isRetainedReleasePosted = false;
+        }
+    };
+
+    private final Runnable recheckLevels = new Runnable() {
+        @Override
+        public void run() {
+            for (Map.Entry<ZoomImageView, LevelState> entry : levels.entrySet()) {
+                final LevelState state = entry.getValue();
+                if (state.selector.isSettling() || (state.heldUntil != 0)) {
+                    onMatrixChanged(entry.getKey());
+                }
+            }
+        }
+    };
+
+    private final Runnable scheduleDeliveryFrame = new Runnable() {
+        @Override
+        public void run() {
+            postDeliveryFrame();
+        }
+    };
+
+    private final Runnable deliveryFrame = new Runnable() {
+        @Override
+        public void run() {
+            deliverPending();
+        }
+    };
+
+    public ZoomImageLoader(Context context) {
+        this(context, new EncodedImageCache(
+                (int) (Runtime.getRuntime().maxMemory() / DEFAULT_CACHE_FRACTION)));
+    }
+
+    public ZoomImageLoader(Context context, EncodedImageCache cache) {
+        // Not the resources of the activity, which would be leaked and keep
+        // its display metrics after a rotation
+        final Context applicationContext = context.getApplicationContext();
+        this.resources = ((applicationContext != null) ? applicationContext : context)
+                .getResources();
+        this.cache = cache;
+
+        mainHandler = new Handler(Looper.getMainLooper());
+
+        // A single background thread running the most important task first
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "ZoomImageLoader");
+                    }
+                });
+    }
+
+    public EncodedImageCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Starts recording decode and cache metrics into the given instance.
+     * 
+     * @param metrics
+     *            - Where to record, null to stop recording.
+     */
+    public void setMetrics(ZoomImageMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the listener told on the UI thread when a load fails. The failed
+     * load is reported by {@link #getLoadState(ZoomImageView)} as
+     * {@link #STATE_FAILED} until the view is loaded again or cancelled.
+     */
+    public void setOnLoadFailedListener(OnLoadFailedListener listener) {
+        loadFailedListener = listener;
+    }
+
+    /**
+     * Starts making thumbnails of the images into the given cache. The
+     * thumbnail of an image is made from its first decode, and by
+     * {@link #prefetch(ImageSource)} for images which haven't been decoded.
+     *
+     * @param thumbnailCache
+     *            - The cache, null to stop making thumbnails.
+     */
+    public void setThumbnailCache(ThumbnailCache thumbnailCache) {
+        this.thumbnailCache = thumbnailCache;
+    }
+
+    public ThumbnailCache getThumbnailCache() {
+        return thumbnailCache;
+    }
+
+    /**
+     * Sets how many bytes of decoded bitmaps are handed to the views per
+     * frame. The first bitmap of a frame is always delivered, however large,
+     * the next ones wait for the following frames once the budget is used.
+     * Every delivered bitmap is uploaded as a texture when first drawn, so
+     * this spreads the upload cost of fast swiping over several frames.
+     *
+     * @param maxBytes
+     *            - The budget, 0 to deliver one bitmap per frame.
+     */
+    public void setMaxDeliveredBytesPerFrame(int maxBytes) {
+        maxDeliveredBytesPerFrame = maxBytes;
+    }
+
+    /**
+     * Loads the image into the view. Any earlier load into the same view is
+     * cancelled.
+     */
+    public void load(ZoomImageView view, ImageSource source) {
+        cancel(view);
+        view.imageLoader = this;
+
+        final Drawable retained = retainedDrawables.remove(source.getKey());
+        if (retained != null) {
+            view.setImageDrawable(retained, retainedOrientations.remove(source.getKey()));
+            shownKeys.put(view, source.getKey());
+            if (retained instanceof SampledBitmapDrawable) {
+                startLevels(view, source, retained,
+                        Math.round(((SampledBitmapDrawable) retained).getSampleScale()));
+            }
+
+            if (!isRetainedReleasePosted) {
+                // Runs once the layout pass creating the new pages is done
+                isRetainedReleasePosted = mainHandler.post(releaseRetained);
+            }
+            return;
+        }
+
+        int targetWidth = view.getWidth();
+        int targetHeight = view.getHeight();
+        if ((targetWidth == 0) || (targetHeight == 0)) {
+            // Not laid out yet, assume the view fills the screen
+            final DisplayMetrics metrics = resources.getDisplayMetrics();
+            targetWidth = metrics.widthPixels;
+            targetHeight = metrics.heightPixels;
+        }
+
+        // The layout is prepared with the image size, if the view has its own
+        final ScaleType scaleType = (view.isZoomEnabled() && (view.getWidth() > 0)
+                && (view.getHeight() > 0)) ? view.getScaleType() : null;
+        final LoadRequest request = new LoadRequest(view, source, targetWidth, targetHeight, 0,
+                scaleType);
+        requests.put(view, request);
+        executor.execute(request);
+    }
+
+    /**
+     * Moves the load into the view, and the decode it shares with other
+     * loads, ahead of all the other loads. Call it for the view the user is
+     * looking at, e.g. the current page of a ViewPager.
+     */
+    public void prioritize(ZoomImageView view) {
+        final LoadRequest request = requests.get(view);
+        if (request == null) {
+            return;
+        }
+
+        promote(request, PRIORITY_VISIBLE);
+        synchronized (inFlight) {
+            if (request.decodeTask != null) {
+                promote(request.decodeTask, PRIORITY_VISIBLE);
+            }
+        }
+    }
+
+    /**
+     * Reads the encoded image into the cache without decoding it, so a later
+     * {@link #load(ZoomImageView, ImageSource)} doesn't need to do any I/O.
+     * If there is a thumbnail cache without a thumbnail of the image, the
+     * image is decoded at the thumbnail size for it. Runs after the loads.
+     */
+    public void prefetch(final ImageSource source) {
+        final ThumbnailCache thumbnails = thumbnailCache;
+        final boolean needsThumbnail = (thumbnails != null)
+                && !thumbnails.contains(source.getKey());
+
+        executor.execute(new Task(PRIORITY_PREFETCH) {
+            @Override
+            public void run() {
+                try {
+                    final ByteBuffer encoded = getEncoded(source);
+                    if (needsThumbnail) {
+                        decodeThumbnail(source, encoded, thumbnails);
+                    }
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Unable to prefetch " + source, e);
+                } catch (OutOfMemoryError e) {
+                    // Only a read ahead, the worker carries on with the loads
+                    Log.w(LOG_TAG, "Out of memory prefetching " + source, e);
+                } catch (RuntimeException e) {
+                    Log.w(LOG_TAG, "Unable to prefetch " + source, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Whether a load into the view is queued, decoding, waiting for a
+     *         frame to be delivered in, has failed, or there is none. One of
+     *         {@link #STATE_IDLE}, {@link #STATE_QUEUED},
+     *         {@link #STATE_DECODING}, {@link #STATE_DELIVERING} and
+     *         {@link #STATE_FAILED}.
+     */
+    public int getLoadState(ZoomImageView view) {
+        final LoadRequest request = requests.get(view);
+        if (request == null) {
+            return STATE_IDLE;
+        }
+        if (request.error != null) {
+            return STATE_FAILED;
+        }
+        if (pendingDeliveries.contains(request) || decodedRequests.contains(request)) {
+            return STATE_DELIVERING;
+        }
+        final DecodeTask task = request.decodeTask;
+        return ((task != null) && task.isDecoding) ? STATE_DECODING : STATE_QUEUED;
+    }
+
+    /**
+     * Cancels the pending load into the view, if any.
+     */
+    public void cancel(ZoomImageView view) {
+        shownKeys.remove(view);
+        levels.remove(view);
+        cancelRequest(view);
+    }
+
+    private void cancelRequest(ZoomImageView view) {
+        final LoadRequest request = requests.remove(view);
+        if (request != null) {
+            request.cancelled = true;
+            executor.remove(request);
+
+            synchronized (inFlight) {
+                final DecodeTask task = request.decodeTask;
+                if ((task != null) && task.requests.remove(request) && task.requests.isEmpty()
+                        && executor.remove(task)) {
+                    // Nobody else is waiting for the decode, drop it
+                    inFlight.remove(task.key);
+                }
+            }
+
+            if (pendingDeliveries.remove(request)) {
+                request.release();
+            }
+        }
+    }
+
+    /**
+     * Keeps the images currently shown by the loaded views, so they survive a
+     * configuration change. Call it from onRetainNonConfigurationInstance()
+     * and hand the loader over to the new activity: loading the same images
+     * into the new views then reuses the decoded pixels instead of decoding
+     * them again. Images not picked up during the layout pass which picks up
+     * the first one are released. The pending loads are cancelled, so the
+     * loader keeps no view of the old activity.
+     */
+    public void retainImages() {
+        for (Map.Entry<ZoomImageView, String> entry : shownKeys.entrySet()) {
+            final Drawable drawable = entry.getKey().getDrawable();
+            if (drawable != null) {
+                retainedDrawables.put(entry.getValue(), drawable);
+                retainedOrientations.put(entry.getValue(), entry.getKey().getOrientation());
+            }
+        }
+        shownKeys.clear();
+
+        for (ZoomImageView view : new ArrayList<ZoomImageView>(requests.keySet())) {
+            cancelRequest(view);
+        }
+        levels.clear();
+        mainHandler.removeCallbacks(recheckLevels);
+        cancelDeliveryFrame();
+    }
+
+    /**
+     * Stops the background thread. The loader can't be used afterwards.
+     */
+    public void quit() {
+        for (LoadRequest request : requests.values()) {
+            request.cancelled = true;
+        }
+        requests.clear();
+        for (LoadRequest request : pendingDeliveries) {
+            request.release();
+        }
+        pendingDeliveries.clear();
+        // Whatever is still decoded is released by the delivery frame
+        shownKeys.clear();
+        levels.clear();
+        retainedOrientations.clear();
+        mainHandler.removeCallbacks(recheckLevels);
+        retainedDrawables.clear();
+        synchronized (inFlight) {
+            executor.shutdownNow();
+            inFlight.clear();
+        }
+    }
+
+    /**
+     * Called by a loaded view once per frame in which its matrix has changed,
+     * shows the image at the level selected for the new scale.
+     */
+    void onMatrixChanged(ZoomImageView view) {
+        final LevelState state = levels.get(view);
+        final RectF rect = view.peekDisplayRect();
+        if ((state == null) || (rect == null)) {
+            return;
+        }
+        if (state.heldUntil != 0) {
+            if (SystemClock.uptimeMillis() < state.heldUntil) {
+                return;
+            }
+            state.heldUntil = 0;
+        }
+
+        // The shown width is the source height if the orientation swaps them
+        final int sourceWidth = view.isTransposed() ? state.sourceHeight : state.sourceWidth;
+        final LevelSelector selector = state.selector;
+        final int level = selector.select(rect.width() / sourceWidth, SystemClock.uptimeMillis());
+        if (selector.isSettling()) {
+            // Check again in case the matrix doesn't change any more
+            mainHandler.removeCallbacks(recheckLevels);
+            mainHandler.postAtTime(recheckLevels, selector.getSettleTime());
+        }
+
+        requestLevel(view, state, level);
+    }
+
+    /**
+     * Called by a loaded view when it starts animating to a known scale. When
+     * zooming in, decodes the level for the end of the animation right away,
+     * so it is ready by the time the animation ends, and keeps the level
+     * while the animation runs.
+     *
+     * @param displayWidth
+     *            - The width the image is shown at in the end.
+     * @param durationMs
+     *            - How long the animation runs.
+     */
+    void onZoomTarget(ZoomImageView view, float displayWidth, long durationMs) {
+        final LevelState state = levels.get(view);
+        if (state == null) {
+            return;
+        }
+
+        final int sourceWidth = view.isTransposed() ? state.sourceHeight : state.sourceWidth;
+        final LevelSelector selector = state.selector;
+        final int level = selector.getTargetLevel(displayWidth / sourceWidth);
+        if (level >= state.shownLevel) {
+            // Zooming out, the shown level is fine until the animation ends
+            return;
+        }
+        selector.setLevel(level);
+
+        // Checked again in case the animation has been the last change
+        state.heldUntil = SystemClock.uptimeMillis() + durationMs;
+        mainHandler.removeCallbacks(recheckLevels);
+        mainHandler.postAtTime(recheckLevels, state.heldUntil);
+
+        requestLevel(view, state, selector.getLevel());
+    }
+
+    private void requestLevel(ZoomImageView view, LevelState state, int level) {
+        if (level == state.requestedLevel) {
+            return;
+        }
+        state.requestedLevel = level;
+        cancelRequest(view);
+
+        if (level == state.shownLevel) {
+            return;
+        }
+        if (level == state.coarseLevel) {
+            state.shownLevel = level;
+            view.swapDrawable(state.coarseDrawable);
+            return;
+        }
+
+        // Keep showing the current level until the new one is decoded
+        final LoadRequest request = new LoadRequest(view, state.source, 0, 0, level, null);
+        request.priority = PRIORITY_VISIBLE;
+        requests.put(view, request);
+        executor.execute(request);
+    }
+
+    /**
+     * Starts following the scale of the view, if its image can be decoded at
+     * a finer level than the one it has been loaded at.
+     */
+    private void startLevels(ZoomImageView view, ImageSource source, Drawable drawable,
+            int sampleSize) {
+        final int sourceWidth = drawable.getIntrinsicWidth();
+        final int sourceHeight = drawable.getIntrinsicHeight();
+        if ((sourceWidth <= 0) || (sourceHeight <= 0)) {
+            return;
+        }
+
+        // The finest level still fitting a texture and the heap budget
+        final int maxSize = ZoomImageView.getMaxBitmapSize();
+        final long maxBytes = Runtime.getRuntime().maxMemory() / REFINED_HEAP_FRACTION;
+        int finestLevel = 1;
+        while (finestLevel < sampleSize) {
+            final int width = sourceWidth / finestLevel, height = sourceHeight / finestLevel;
+            if ((Math.max(width, height) <= maxSize) && ((4L * width * height) <= maxBytes)) {
+                break;
+            }
+            finestLevel *= 2;
+        }
+        if (finestLevel >= sampleSize) {
+            return;
+        }
+
+        final LevelState state = new LevelState(source, drawable, sampleSize, sourceWidth,
+                sourceHeight);
+        state.selector.reset(sampleSize, finestLevel, sampleSize);
+        levels.put(view, state);
+    }
+
+    /**
+     * Raises the priority of the task, moving it ahead in the queue if it
+     * hasn't started yet.
+     */
+    private void promote(Task task, int priority) {
+        if (task.priority >= priority) {
+            return;
+        }
+        // The queue is ordered on insertion, the task has to be put back
+        if (executor.remove(task)) {
+            task.priority = priority;
+            executor.execute(task);
+        } else {
+            task.priority = priority;
+        }
+    }
+
+    private ByteBuffer getEncoded(ImageSource source) throws IOException {
+        // Mapped images are read from the page cache, no need to copy them
+        final ByteBuffer mapped = source.map();
+        if (mapped != null) {
+            return mapped;
+        }
+
+        final String key = source.getKey();
+        final ByteBuffer cached = cache.get(key);
+
+        final ZoomImageMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.recordCacheLookup(cached != null);
+        }
+
+        if (cached != null) {
+            return cached;
+        }
+
+        final InputStream stream = source.openStream();
+        try {
+            return cache.put(key, stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Decodes the image at about the size of a thumbnail, on the background
+     * thread, and adds its thumbnail to the cache on the UI thread.
+     */
+    private void decodeThumbnail(final ImageSource source, ByteBuffer encoded,
+            final ThumbnailCache thumbnails) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(EncodedImageCache.openStream(encoded.duplicate()), null,
+                options);
+        if ((options.outWidth <= 0) || (options.outHeight <= 0)) {
+            return;
+        }
+
+        final int size = thumbnails.getCellSize();
+        options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight, size,
+                size);
+        options.inJustDecodeBounds = false;
+        final Bitmap bitmap = BitmapFactory.decodeStream(
+                EncodedImageCache.openStream(encoded.duplicate()), null, options);
+        if (bitmap == null) {
+            return;
+        }
+
+        final Bitmap thumbnail;
+        try {
+            thumbnail = thumbnails.createThumbnail(bitmap);
+        } finally {
+            bitmap.recycle();
+        }
+        final int orientation = source.getOrientation();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (thumbnailCache == thumbnails) {
+                    thumbnails.put(source.getKey(), thumbnail, orientation);
+                }
+                thumbnail.recycle();
+            }
+        });
+    }
+
+    /**
+     * Called on the background thread with a decoded request. Only the first
+     * request since the last delivery frame posts a message, which schedules
+     * the next frame.
+     */
+    private void enqueueDecoded(LoadRequest request) {
+        decodedRequests.add(request);
+        if (isDeliveryScheduled.compareAndSet(false, true)) {
+            mainHandler.post(scheduleDeliveryFrame);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postDeliveryFrame() {
+        if (VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN) {
+            if (frameCallback == null) {
+                frameCallback = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        deliverPending();
+                    }
+                };
+            }
+            Choreographer.getInstance().postFrameCallback(
+                    (Choreographer.FrameCallback) frameCallback);
+        } else {
+            mainHandler.postDelayed(deliveryFrame, FRAME_DELAY_MS);
+        }
+    }
+
+    /**
+     * Drops the scheduled delivery frame. A new one is scheduled if anything
+     * decoded is still waiting, so it gets released.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void cancelDeliveryFrame() {
+        if (frameCallback != null) {
+            Choreographer.getInstance().removeFrameCallback(
+                    (Choreographer.FrameCallback) frameCallback);
+            frameCallback = null;
+        }
+        mainHandler.removeCallbacks(scheduleDeliveryFrame);
+        mainHandler.removeCallbacks(deliveryFrame);
+
+        isDeliveryScheduled.set(false);
+        if (!decodedRequests.isEmpty() && isDeliveryScheduled.compareAndSet(false, true)) {
+            mainHandler.post(scheduleDeliveryFrame);
+        }
+    }
+
+    /**
+     * Runs once per frame while there is anything to deliver. Collects what
+     * has been decoded since the last frame, then delivers the bitmaps in
+     * order until the budget of the frame is used. The rest waits for the
+     * next frame.
+     */
+    private void deliverPending() {
+        // Cleared first, so anything decoded from now on schedules a frame
+        isDeliveryScheduled.set(false);
+
+        LoadRequest decoded;
+        while ((decoded = decodedRequests.poll()) != null) {
+            if (decoded.error != null) {
+                onLoadFailed(decoded);
+                continue;
+            }
+            addThumbnail(decoded);
+            if (decoded.cancelled || (requests.get(decoded.view) != decoded)) {
+                decoded.release();
+            } else {
+                pendingDeliveries.add(decoded);
+            }
+        }
+
+        int deliveredBytes = 0;
+        while (!pendingDeliveries.isEmpty()) {
+            final LoadRequest request = pendingDeliveries.get(0);
+            final DecodeTask task = request.decodeTask;
+            // A bitmap already shown by another view doesn't need uploading
+            final int bytes = task.isShown ? 0 : task.bitmap.getRowBytes()
+                    * task.bitmap.getHeight();
+            if ((deliveredBytes > 0) && ((deliveredBytes + bytes) > maxDeliveredBytesPerFrame)) {
+                break;
+            }
+
+            pendingDeliveries.remove(0);
+            if (request.deliver()) {
+                deliveredBytes += bytes;
+            }
+        }
+
+        if (!pendingDeliveries.isEmpty() && isDeliveryScheduled.compareAndSet(false, true)) {
+            postDeliveryFrame();
+        }
+    }
+
+    /**
+     * Reports a failed request, unless it has been cancelled meanwhile. A
+     * failed load stays in the requests, so its state can be queried, a
+     * failed finer level is dropped and the coarse one stays shown.
+     */
+    private void onLoadFailed(LoadRequest request) {
+        if (request.cancelled || (requests.get(request.view) != request)) {
+            return;
+        }
+
+        if (request.refinedSampleSize > 0) {
+            requests.remove(request.view);
+            Log.w(LOG_TAG, "Unable to refine " + request.source, request.error);
+        } else if (loadFailedListener != null) {
+            loadFailedListener.onLoadFailed(request.view, request.source, request.error);
+        }
+    }
+
+    /**
+     * Adds the thumbnail made with the decode of the request to the cache,
+     * even if the request has been cancelled meanwhile.
+     */
+    private void addThumbnail(LoadRequest request) {
+        final DecodeTask task = request.decodeTask;
+        if ((task.thumbnail == null) || (request.refinedSampleSize > 0)) {
+            return;
+        }
+
+        final ThumbnailCache thumbnails = thumbnailCache;
+        if (thumbnails != null) {
+            thumbnails.put(request.source.getKey(), task.thumbnail, request.orientation);
+        }
+        task.thumbnail.recycle();
+        task.thumbnail = null;
+    }
+
+    /**
+     * @return The largest power of two sample size which still gives at least
+     *         the target size.
+     */
+    static int calculateSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (((width / (sampleSize * 2)) >= targetWidth)
+                && ((height / (sampleSize * 2)) >= targetHeight)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * A task of the background thread, run in priority order and in the order
+     * of creation within a priority.
+     */
+    private static abstract class Task implements Runnable, Comparable<Task> {
+        private static final AtomicLong nextSequence = new AtomicLong();
+
+        // Only changed while the task is out of the queue
+        volatile int priority;
+        private final long sequence = nextSequence.getAndIncrement();
+
+        public Task(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Loads the image into a view. Reads the size of the image, then joins
+     * the decode of the image at the needed sample size, starting it if
+     * there is none.
+     */
+    private class LoadRequest extends Task {
+        private final ZoomImageView view;
+        private final ImageSource source;
+        private final int targetWidth, targetHeight;
+        // A finer level of an image already shown, 0 for a new image
+        private final int refinedSampleSize;
+        // Read with the size, in the background
+        private volatile int orientation;
+        // The layout to prepare, null for none
+        private final ScaleType scaleType;
+        // Prepared in the background, installed by the view with the image
+        private volatile ZoomViewState viewState;
+
+        volatile boolean cancelled;
+        // Set in the background before the request is handed to the UI
+        // thread as failed
+        volatile Throwable error;
+
+        // Set under inFlight once the decode is joined
+        volatile DecodeTask decodeTask;
+
+        public LoadRequest(ZoomImageView view, ImageSource source, int targetWidth,
+                int targetHeight, int refinedSampleSize, ScaleType scaleType) {
+            super(PRIORITY_LOAD);
+            this.view = view;
+            this.source = source;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+            this.refinedSampleSize = refinedSampleSize;
+            this.scaleType = scaleType;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+
+            final ByteBuffer encoded;
+            try {
+                encoded = getEncoded(source);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Unable to read " + source, e);
+                fail(e);
+                return;
+            } catch (OutOfMemoryError e) {
+                Log.w(LOG_TAG, "Out of memory reading " + source, e);
+                fail(e);
+                return;
+            }
+
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(EncodedImageCache.openStream(encoded.duplicate()), null,
+                    options);
+            final int sourceWidth = options.outWidth, sourceHeight = options.outHeight;
+            if ((sourceWidth <= 0) || (sourceHeight <= 0)) {
+                fail(new IOException("Unable to read the size of " + source));
+                return;
+            }
+
+            if (refinedSampleSize == 0) {
+                orientation = source.getOrientation();
+                if (scaleType != null) {
+                    // Laid out here, so the view has nothing to calculate
+                    viewState = new ZoomViewState(targetWidth, targetHeight, sourceWidth,
+                            sourceHeight, orientation, scaleType);
+                }
+            }
+
+            final int sampleSize = (refinedSampleSize > 0) ? refinedSampleSize
+                    : calculateSampleSize(sourceWidth, sourceHeight, targetWidth, targetHeight);
+            // The whole image is the only region decoded for now
+            final String decodeKey = source.getKey() + "#0,0," + sourceWidth + "," + sourceHeight
+                    + "@" + sampleSize;
+
+            synchronized (inFlight) {
+                if (cancelled || executor.isShutdown()) {
+                    return;
+                }
+
+                DecodeTask task = inFlight.get(decodeKey);
+                if (task == null) {
+                    task = new DecodeTask(decodeKey, source, encoded, sampleSize, sourceWidth,
+                            sourceHeight, priority);
+                    // A new image, the finer levels have one already
+                    task.makesThumbnail = refinedSampleSize == 0;
+                    inFlight.put(decodeKey, task);
+                    executor.execute(task);
+                } else {
+                    promote(task, priority);
+                }
+                task.requests.add(this);
+                decodeTask = task;
+            }
+        }
+
+        /**
+         * Hands the request to the UI thread as failed.
+         */
+        void fail(Throwable error) {
+            this.error = error;
+            enqueueDecoded(this);
+        }
+
+        /**
+         * Shows the decoded bitmap in the view, unless the load has been
+         * cancelled meanwhile.
+         *
+         * @return true if the bitmap has been delivered.
+         */
+        boolean deliver() {
+            if (cancelled || (requests.get(view) != this)) {
+                release();
+                return false;
+            }
+            requests.remove(view);
+
+            final DecodeTask task = decodeTask;
+            task.undelivered--;
+            task.isShown = true;
+            final Drawable drawable = new SampledBitmapDrawable(resources, task.bitmap,
+                    task.sourceWidth, task.sourceHeight);
+
+            final LevelState state = levels.get(view);
+            if ((refinedSampleSize > 0) && (state != null)) {
+                state.shownLevel = refinedSampleSize;
+                view.swapDrawable(drawable);
+            } else {
+                shownKeys.put(view, source.getKey());
+                if (viewState != null) {
+                    view.prepareViewState(viewState);
+                }
+                view.setImageDrawable(drawable, orientation);
+                startLevels(view, source, drawable, task.sampleSize);
+            }
+            return true;
+        }
+
+        /**
+         * Drops the decoded bitmap without showing it. It is recycled once no
+         * load sharing it can show it any more.
+         */
+        void release() {
+            final DecodeTask task = decodeTask;
+            task.undelivered--;
+            if ((task.undelivered == 0) && !task.isShown) {
+                task.bitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * Decodes an image at a sample size for all the loads which have joined
+     * it, and hands the bitmap over to each of them.
+     */
+    private class DecodeTask extends Task {
+        final String key;
+        private final ImageSource source;
+        private final ByteBuffer encoded;
+        private final int sampleSize;
+        final int sourceWidth, sourceHeight;
+
+        // Guarded by inFlight
+        final ArrayList<LoadRequest> requests = new ArrayList<LoadRequest>();
+        volatile boolean isDecoding;
+
+        // Set before the task is queued
+        boolean makesThumbnail;
+
+        // Set before the loads are handed to the UI thread, then only used
+        // there
+        Bitmap bitmap;
+        Bitmap thumbnail;
+        int undelivered;
+        boolean isShown;
+
+        public DecodeTask(String key, ImageSource source, ByteBuffer encoded, int sampleSize,
+                int sourceWidth, int sourceHeight, int priority) {
+            super(priority);
+            this.key = key;
+            this.source = source;
+            this.encoded = encoded;
+            this.sampleSize = sampleSize;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+        }
+
+        @Override
+        public void run() {
+            synchronized (inFlight) {
+                if (requests.isEmpty()) {
+                    inFlight.remove(key);
+                    return;
+                }
+                isDecoding = true;
+            }
+
+            Bitmap bitmap = null;
+            Throwable error = null;
+            try {
+                bitmap = decode();
+                if (bitmap == null) {
+                    error = new IOException("Unable to decode " + source);
+                } else {
+                    createThumbnail(bitmap);
+                }
+            } catch (OutOfMemoryError e) {
+                Log.w(LOG_TAG, "Out of memory decoding " + source, e);
+                error = e;
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Unable to decode " + source, e);
+                error = e;
+            } finally {
+                final ArrayList<LoadRequest> decoded;
+                synchronized (inFlight) {
+                    // Loads from now on start a new decode
+                    inFlight.remove(key);
+                    isDecoding = false;
+                    decoded = new ArrayList<LoadRequest>(requests);
+                }
+
+                if (bitmap != null) {
+                    if (decoded.isEmpty()) {
+                        bitmap.recycle();
+                        if (thumbnail != null) {
+                            thumbnail.recycle();
+                            thumbnail = null;
+                        }
+                    } else {
+                        this.bitmap = bitmap;
+                        undelivered = decoded.size();
+                        for (LoadRequest request : decoded) {
+                            enqueueDecoded(request);
+                        }
+                    }
+                } else {
+                    // Every joined load fails, none of them waits for a
+                    // bitmap which never comes
+                    if (error == null) {
+                        error = new IOException("Unable to decode " + source);
+                    }
+                    for (LoadRequest request : decoded) {
+                        request.fail(error);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Makes the thumbnail of the decoded bitmap, if asked for. The
+         * bitmap is shown even if it can't be made.
+         */
+        private void createThumbnail(Bitmap bitmap) {
+            final ThumbnailCache thumbnails = thumbnailCache;
+            if (!makesThumbnail || (thumbnails == null)) {
+                return;
+            }
+            try {
+                thumbnail = thumbnails.createThumbnail(bitmap);
+            } catch (OutOfMemoryError e) {
+                Log.w(LOG_TAG, "Out of memory making the thumbnail of " + source, e);
+            }
+        }
+
+        private Bitmap decode() {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            final long decodeStartNanos = System.nanoTime();
+            final Bitmap bitmap = BitmapFactory.decodeStream(
+                    EncodedImageCache.openStream(encoded), null, options);
+            if (bitmap == null) {
+                Log.w(LOG_TAG, "Unable to decode " + source);
+                return null;
+            }
+
+            // Build what the bitmap needs for drawing here rather than in
+            // the frame it is first drawn in
+            bitmap.prepareToDraw();
+
+            final ZoomImageMetrics metrics = ZoomImageLoader.this.metrics;
+            if (metrics != null) {
+                metrics.recordDecode(System.nanoTime() - decodeStartNanos,
+                        bitmap.getRowBytes() * bitmap.getHeight());
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * The levels of an image shown by a view. Only used on the UI thread.
+     */
+    private static class LevelState {
+        final ImageSource source;
+        final int sourceWidth, sourceHeight;
+        final LevelSelector selector = new LevelSelector();
+
+        // Kept to fall back to when zooming out
+        final Drawable coarseDrawable;
+        final int coarseLevel;
+
+        int shownLevel;
+        int requestedLevel;
+        // Levels aren't changed until then, while zooming to a known scale
+        long heldUntil;
+
+        public LevelState(ImageSource source, Drawable coarseDrawable, int coarseLevel,
+                int sourceWidth, int sourceHeight) {
+            this.source = source;
+            this.coarseDrawable = coarseDrawable;
+            this.coarseLevel = coarseLevel;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            shownLevel = requestedLevel = coarseLevel;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+/**
+ * Opt-in performance counters of ZoomImageViews and the ZoomImageLoader. Set
+ * the same instance on the views and the loader with setMetrics(), then poll
+ * it with {@link #copyTo(ZoomImageMetrics)} and forward the values to your
+ * telemetry. Recording doesn't allocate anything.
+ *
+ * This class is thread safe.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class ZoomImageMetrics {
+
+    /**
+     * Frame interval of a 60 fps display, longer frames count as dropped.
+     */
+    static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    /**
+     * How many of the last animation frame times are kept.
+     */
+    static final int RECENT_FRAMES = 60;
+
+    /**
+     * A histogram of durations with fixed, exponentially growing buckets.
+     */
+    public static class Histogram {
+        /**
+         * Upper bounds of the buckets in microseconds, the last bucket has no
+         * upper bound.
+         */
+        public static final long[] BUCKET_BOUNDS_MICROS = {
+                250, 500, 1000, 2000, 4000, 8000, 16000, 32000, 64000, 128000, 256000, 512000
+        };
+
+        private final long[] counts = new long[BUCKET_BOUNDS_MICROS.length + 1];
+        private long count;
+        private long sumMicros;
+        private long maxMicros;
+
+        void record(long nanos) {
+            final long micros = nanos / 1000;
+            int bucket = 0;
+            while ((bucket < BUCKET_BOUNDS_MICROS.length)
+                    && (micros > BUCKET_BOUNDS_MICROS[bucket])) {
+                bucket++;
+            }
+            counts[bucket]++;
+            count++;
+            sumMicros += micros;
+            maxMicros = Math.max(maxMicros, micros);
+        }
+
+        void copyTo(Histogram target) {
+            System.arraycopy(counts, 0, target.counts, 0, counts.length);
+            target.count = count;
+            target.sumMicros = sumMicros;
+            target.maxMicros = maxMicros;
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = 0;
+            }
+            count = sumMicros = maxMicros = 0;
+        }
+
+        /**
+         * @return The number of values in the bucket, see
+         *         {@link #BUCKET_BOUNDS_MICROS}.
+         */
+        public long getBucketCount(int bucket) {
+            return counts[bucket];
+        }
+
+        public int getBucketCount() {
+            return counts.length;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSumMicros() {
+            return sumMicros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        /**
+         * @return The upper bound of the bucket containing the given
+         *         percentile (0 - 100), in microseconds. Long.MAX_VALUE for the
+         *         last bucket, 0 if nothing has been recorded.
+         */
+        public long getPercentileMicros(float percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long threshold = (long) Math.ceil((count * percentile) / 100f);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+                seen += counts[i];
+                if (seen >= threshold) {
+                    return BUCKET_BOUNDS_MICROS[i];
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private long animationFrames;
+    private long droppedAnimationFrames;
+    private final Histogram touchTime = new Histogram();
+    private final Histogram decodeTime = new Histogram();
+    private long decodedBytes;
+    private long cacheHits;
+    private long cacheMisses;
+    private final Histogram timeToFirstFrame = new Histogram();
+    private long baseMatrixUpdates;
+    // The last animation frame times, the oldest at recentFrameIndex once
+    // full
+    private final long[] recentFrameNanos = new long[RECENT_FRAMES];
+    private int recentFrameIndex;
+    private int recentFrameCount;
+
+    /**
+     * Records a frame of a fling or zoom animation.
+     *
+     * @param frameNanos
+     *            - Time spent since the previous frame of the same animation,
+     *            0 for its first frame.
+     */
+    synchronized void recordAnimationFrame(long frameNanos) {
+        animationFrames++;
+        if (frameNanos > 0) {
+            recentFrameNanos[recentFrameIndex] = frameNanos;
+            recentFrameIndex = (recentFrameIndex + 1) % RECENT_FRAMES;
+            recentFrameCount = Math.min(recentFrameCount + 1, RECENT_FRAMES);
+        }
+        if (frameNanos > FRAME_INTERVAL_NANOS) {
+            // Every full frame interval missed is a frame which wasn't drawn
+            droppedAnimationFrames += (frameNanos - (FRAME_INTERVAL_NANOS / 2))
+                    / FRAME_INTERVAL_NANOS;
+        }
+    }
+
+    synchronized void recordTouch(long nanos) {
+        touchTime.record(nanos);
+    }
+
+    synchronized void recordDecode(long nanos, long bytes) {
+        decodeTime.record(nanos);
+        decodedBytes += bytes;
+    }
+
+    synchronized void recordCacheLookup(boolean hit) {
+        if (hit) {
+            cacheHits++;
+        } else {
+            cacheMisses++;
+        }
+    }
+
+    synchronized void recordFirstFrame(long nanos) {
+        timeToFirstFrame.record(nanos);
+    }
+
+    synchronized void recordBaseMatrixUpdate() {
+        baseMatrixUpdates++;
+    }
+
+    /**
+     * Copies a consistent snapshot of all the values into the target, which
+     * can then be read without blocking the recording threads.
+     */
+    public void copyTo(ZoomImageMetrics target) {
+        if (target == this) {
+            return;
+        }
+
+        // Only one lock is held at a time, so copies in both directions
+        // can't deadlock
+        final ZoomImageMetrics snapshot = new ZoomImageMetrics();
+        synchronized (this) {
+            snapshot.copyValues(this);
+        }
+        synchronized (target) {
+            target.copyValues(snapshot);
+        }
+    }
+
+    private void copyValues(ZoomImageMetrics source) {
+        animationFrames = source.animationFrames;
+        droppedAnimationFrames = source.droppedAnimationFrames;
+        source.touchTime.copyTo(touchTime);
+        source.decodeTime.copyTo(decodeTime);
+        decodedBytes = source.decodedBytes;
+        cacheHits = source.cacheHits;
+        cacheMisses = source.cacheMisses;
+        source.timeToFirstFrame.copyTo(timeToFirstFrame);
+        baseMatrixUpdates = source.baseMatrixUpdates;
+        System.arraycopy(source.recentFrameNanos, 0, recentFrameNanos, 0, RECENT_FRAMES);
+        recentFrameIndex = source.recentFrameIndex;
+        recentFrameCount = source.recentFrameCount;
+    }
+
+    public synchronized void reset() {
+        animationFrames = droppedAnimationFrames = 0;
+        touchTime.reset();
+        decodeTime.reset();
+        decodedBytes = cacheHits = cacheMisses = 0;
+        timeToFirstFrame.reset();
+        baseMatrixUpdates = 0;
+        recentFrameIndex = recentFrameCount = 0;
+    }
+
+    /**
+     * Copies the last animation frame times, the oldest first.
+     *
+     * @param out
+     *            - At least {@link #RECENT_FRAMES} long.
+     * @return How many frame times have been copied.
+     */
+    synchronized int getRecentFrameNanos(long[] out) {
+        final int oldest = (recentFrameCount < RECENT_FRAMES) ? 0 : recentFrameIndex;
+        for (int i = 0; i < recentFrameCount; i++) {
+            out[i] = recentFrameNanos[(oldest + i) % RECENT_FRAMES];
+        }
+        return recentFrameCount;
+    }
+
+    /**
+     * @return Frames drawn by fling and zoom animations.
+     */
+    public synchronized long getAnimationFrames() {
+        return animationFrames;
+    }
+
+    /**
+     * @return Frames missed by fling and zoom animations, i.e. how many frame
+     *         intervals passed without a new animation frame.
+     */
+    public synchronized long getDroppedAnimationFrames() {
+        return droppedAnimationFrames;
+    }
+
+    /**
+     * @return UI thread time spent handling touch events. Read it from a
+     *         snapshot, see {@link #copyTo(ZoomImageMetrics)}.
+     */
+    public Histogram getTouchTime() {
+        return touchTime;
+    }
+
+    /**
+     * @return Time spent decoding images. Read it from a snapshot, see
+     *         {@link #copyTo(ZoomImageMetrics)}.
+     */
+    public Histogram getDecodeTime() {
+        return decodeTime;
+    }
+
+    public synchronized long getDecodeCount() {
+        return decodeTime.getCount();
+    }
+
+    /**
+     * @return The total size of the decoded bitmaps.
+     */
+    public synchronized long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    public synchronized long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return Time from setting an image on a view to its first frame drawn.
+     *         Read it from a snapshot, see {@link #copyTo(ZoomImageMetrics)}.
+     */
+    public Histogram getTimeToFirstFrame() {
+        return timeToFirstFrame;
+    }
+
+    /**
+     * @return How many times views have updated their base matrix, i.e. how
+     *         many of their layouts, new images and scale types needed it.
+     */
+    public synchronized long getBaseMatrixUpdates() {
+        return baseMatrixUpdates;
+    }
+}
@@ -18,18 +18,30 @@
  *******************************************************************************/
 package com.tenthbit.view;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Matrix.ScaleToFit;
+import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
@@ -37,13 +49,18 @@ import android.view.ScaleGestureDetector.OnScaleGestureListener;
 import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
-import android.view.ViewTreeObserver;
+import android.view.ViewParent;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.Interpolator;
+import android.widget.AbsListView;
 import android.widget.ImageView;
 import android.widget.OverScroller;
+import android.widget.ScrollView;
 import android.widget.Scroller;
 
-public class ZoomImageView extends ImageView implements View.OnTouchListener,
-        ViewTreeObserver.OnGlobalLayoutListener {
+import com.tenthbit.view.RegionExporter.OnExportFinishedListener;
+
+public class ZoomImageView extends ImageView implements View.OnTouchListener {
 
     /**
      * Interface definition for a callback to be invoked when the Photo is
@@ -61,7 +78,8 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
          *            - View the user tapped.
          * @param x
          *            - where the user tapped from the of the Drawable, as
-         *            percentage of the Drawable width.
+         *            percentage of the Drawable width. Relative to the image as
+         *            shown, i.e. after its orientation has been applied.
          * @param y
          *            - where the user tapped from the top of the Drawable, as
          *            percentage of the Drawable height.
@@ -91,6 +109,62 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
         public void onViewTap(View view, float x, float y);
     }
 
+    /**
+     * Interface definition for a callback to be invoked when the displayed
+     * part of the Photo changes, through gestures, animations or flings. It is
+     * invoked at most once per frame.
+     * 
+     * @author tomasz.zawada@gmail.com
+     */
+    public static interface OnMatrixChangedListener {
+        /**
+         * A callback to receive the current viewport of the Photo.
+         * 
+         * @param view
+         *            - View whose matrix has changed.
+         * @param viewport
+         *            - The current viewport. The same instance is reused for
+         *            every callback, it must not be modified nor kept.
+         */
+        public void onMatrixChanged(ZoomImageView view, Viewport viewport);
+    }
+
+    /**
+     * The displayed part of the Photo, as given to an
+     * {@link OnMatrixChangedListener}.
+     * 
+     * @author tomasz.zawada@gmail.com
+     */
+    public static final class Viewport {
+        private float scale;
+        private final RectF displayRect = new RectF();
+        private final RectF visibleRect = new RectF();
+
+        /**
+         * @return The current scale, as returned by
+         *         {@link ZoomImageView#getScale()}.
+         */
+        public float getScale() {
+            return scale;
+        }
+
+        /**
+         * @return The Drawable rectangle relative to the View, as returned by
+         *         {@link ZoomImageView#getDisplayRect()}.
+         */
+        public RectF getDisplayRect() {
+            return displayRect;
+        }
+
+        /**
+         * @return The part of the Drawable visible in the View, as fractions of
+         *         the Drawable width and height.
+         */
+        public RectF getVisibleRect() {
+            return visibleRect;
+        }
+    }
+
     /**
      * 
      * The MultiGestureDetector manages the multi-finger pinch zoom, pan and tap
@@ -106,6 +180,10 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
         private VelocityTracker velocityTracker;
         private boolean isDragging;
 
+        // What the parent has last been told, it may not intercept after a
+        // down event
+        private boolean isParentInterceptAllowed;
+
         private float lastTouchX;
         private float lastTouchY;
         private float lastPointerCount;
@@ -171,6 +249,7 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
                     lastTouchX = x;
                     lastTouchY = y;
                     isDragging = false;
+                    isParentInterceptAllowed = false;
                     break;
 
                 case MotionEvent.ACTION_MOVE: {
@@ -184,8 +263,7 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
 
                     if (isDragging) {
                         if (getDrawable() != null) {
-                            suppMatrix.postTranslate(dx, dy);
-                            checkAndDisplayMatrix();
+                            dragBy(dx, dy);
 
                             /**
                              * Here we decide whether to let the ImageView's
@@ -196,17 +274,21 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
                              * scaling. We then check the edge we're on, and the
                              * direction of the scroll (i.e. if we're pulling
                              * against the edge, aka 'overscrolling', let the
-                             * parent take over).
+                             * parent take over). Vertical edges are checked
+                             * too, if a parent can scroll vertically.
+                             * 
+                             * The parent is only told when the outcome changes,
+                             * requestDisallowInterceptTouchEvent() walks the
+                             * whole parent chain.
                              */
-                            if (allowParentInterceptOnEdge && !multiGestureDetector.isScaling()) {
-                                if ((scrollEdge == EDGE_BOTH)
-                                        || ((scrollEdge == EDGE_LEFT) && (dx >= 1f))
-                                        || ((scrollEdge == EDGE_RIGHT) && (dx <= -1f))) {
-
-                                    if (getParent() != null) {
-                                        getParent().requestDisallowInterceptTouchEvent(false);
-                                    }
-                                }
+                            final boolean allowParentIntercept = allowParentInterceptOnEdge
+                                    && !isScaling() && isPullingAgainstEdge(dx, dy);
+
+                            if ((allowParentIntercept != isParentInterceptAllowed)
+                                    && (getParent() != null)) {
+                                getParent().requestDisallowInterceptTouchEvent(
+                                        !allowParentIntercept);
+                                isParentInterceptAllowed = allowParentIntercept;
                             }
                         }
 
@@ -225,25 +307,22 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
                         lastTouchY = y;
 
                         // Compute velocity within the last 1000ms
-			if (velocityTracker != null) {
-                        	velocityTracker.addMovement(event);
-	                        velocityTracker.computeCurrentVelocity(1000);
-
-        	                final float vX = velocityTracker.getXVelocity(), vY = velocityTracker
-                                .getYVelocity();
-
-	                        // If the velocity is greater than minVelocity perform
-        	                // a fling
-                	        if ((Math.max(Math.abs(vX), Math.abs(vY)) >= scaledMinimumFlingVelocity)
-                        	        && (getDrawable() != null)) {
-                            		currentFlingRunnable = new FlingRunnable(getContext());
-	                            	currentFlingRunnable.fling(getWidth(), getHeight(), (int) -vX,
-        	                            (int) -vY);
-                	            	post(currentFlingRunnable);
-                        	} 
-		        }
+                        if (velocityTracker != null) {
+                            velocityTracker.addMovement(event);
+                            velocityTracker.computeCurrentVelocity(1000);
+
+                            final float vX = velocityTracker.getXVelocity(), vY = velocityTracker
+                                    .getYVelocity();
+
+                            // If the velocity is greater than minVelocity perform
+                            // a fling
+                            if ((Math.max(Math.abs(vX), Math.abs(vY)) >= scaledMinimumFlingVelocity)
+                                    && (getDrawable() != null)) {
+                                fling((int) -vX, (int) -vY);
+                            }
+                        }
                     }
-		    break;
+                    break;
                 }
                 case MotionEvent.ACTION_CANCEL:
                     lastPointerCount = 0;
@@ -289,11 +368,11 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
                 float y = event.getY();
 
                 if (scale < midScale) {
-                    post(new AnimatedZoomRunnable(scale, midScale, x, y));
+                    zoomTo(midScale, x, y, true);
                 } else if ((scale >= midScale) && (scale < maxScale)) {
-                    post(new AnimatedZoomRunnable(scale, maxScale, x, y));
+                    zoomTo(maxScale, x, y, true);
                 } else {
-                    post(new AnimatedZoomRunnable(scale, minScale, x, y));
+                    zoomTo(minScale, x, y, true);
                 }
             } catch (Exception e) {
                 // Can sometimes happen when getX() and getY() is called
@@ -311,7 +390,7 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
         @Override
         public boolean onSingleTapConfirmed(MotionEvent event) {
             if (photoTapListener != null) {
-                final RectF displayRect = getDisplayRect();
+                final RectF displayRect = peekDisplayRect();
 
                 if (null != displayRect) {
                     final float x = event.getX(), y = event.getY();
@@ -345,7 +424,8 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
     /**
      * 
      * The ScrollerProxy encapsulates the Scroller and OverScroller classes.
-     * OverScroller is available since API 9.
+     * OverScroller is available since API 9. Under another clock than the
+     * system one, it runs a ClockScroller instead.
      * 
      * @author tomasz.zawada@gmail.com
      * 
@@ -355,9 +435,12 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
 
         private boolean isOld;
         private Object scroller;
+        private ClockScroller clockScroller;
 
-        public ScrollerProxy(Context context) {
-            if (VERSION.SDK_INT < VERSION_CODES.GINGERBREAD) {
+        public ScrollerProxy(Context context, AnimationClock clock) {
+            if (clock != AnimationClock.SYSTEM) {
+                clockScroller = new ClockScroller(context, clock);
+            } else if (VERSION.SDK_INT < VERSION_CODES.GINGERBREAD) {
                 isOld = true;
                 scroller = new Scroller(context);
             } else {
@@ -367,6 +450,9 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
         }
 
         public boolean computeScrollOffset() {
+            if (clockScroller != null) {
+                return clockScroller.computeScrollOffset();
+            }
             return isOld ? ((Scroller) scroller).computeScrollOffset() : ((OverScroller) scroller)
                     .computeScrollOffset();
         }
@@ -374,7 +460,9 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
         public void fling(int startX, int startY, int velocityX, int velocityY, int minX, int maxX,
                 int minY, int maxY, int overX, int overY) {
 
-            if (isOld) {
+            if (clockScroller != null) {
+                clockScroller.fling(startX, startY, velocityX, velocityY, minX, maxX, minY, maxY);
+            } else if (isOld) {
                 ((Scroller) scroller).fling(startX, startY, velocityX, velocityY, minX, maxX, minY,
                         maxY);
             } else {
@@ -383,8 +471,37 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
             }
         }
 
+        /**
+         * Scrolls back into the given range, if outside of it.
+         * 
+         * @return true if there is something to animate.
+         */
+        public boolean springBack(int startX, int startY, int minX, int maxX, int minY,
+                int maxY) {
+            if (!isOld && (clockScroller == null)) {
+                return ((OverScroller) scroller).springBack(startX, startY, minX, maxX, minY,
+                        maxY);
+            }
+
+            final int x = Math.min(Math.max(startX, minX), maxX);
+            final int y = Math.min(Math.max(startY, minY), maxY);
+            if ((x == startX) && (y == startY)) {
+                return false;
+            }
+            if (clockScroller != null) {
+                clockScroller.startScroll(startX, startY, x - startX, y - startY,
+                        SPRING_BACK_DURATION);
+            } else {
+                ((Scroller) scroller).startScroll(startX, startY, x - startX, y - startY,
+                        SPRING_BACK_DURATION);
+            }
+            return true;
+        }
+
         public void forceFinished(boolean finished) {
-            if (isOld) {
+            if (clockScroller != null) {
+                clockScroller.forceFinished(finished);
+            } else if (isOld) {
                 ((Scroller) scroller).forceFinished(finished);
             } else {
                 ((OverScroller) scroller).forceFinished(finished);
@@ -392,29 +509,57 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
         }
 
         public int getCurrX() {
+            if (clockScroller != null) {
+                return clockScroller.getCurrX();
+            }
             return isOld ? ((Scroller) scroller).getCurrX() : ((OverScroller) scroller).getCurrX();
         }
 
         public int getCurrY() {
+            if (clockScroller != null) {
+                return clockScroller.getCurrY();
+            }
             return isOld ? ((Scroller) scroller).getCurrY() : ((OverScroller) scroller).getCurrY();
         }
     }
 
+    private static final String LOG_TAG = "ZoomImageView";
+
     private static final int EDGE_NONE = -1;
     private static final int EDGE_LEFT = 0;
     private static final int EDGE_RIGHT = 1;
     private static final int EDGE_BOTH = 2;
+    private static final int EDGE_TOP = 0;
+    private static final int EDGE_BOTTOM = 1;
+
+    // How far the image can be pulled or flung past its edges
+    private static final float OVERSCROLL_DISTANCE_DIP = 32f;
+    // The spring back without an OverScroller, before API 9
+    private static final int SPRING_BACK_DURATION = 250;
 
     public static final float DEFAULT_MAX_SCALE = 3.0f;
     public static final float DEFAULT_MID_SCALE = 1.75f;
     public static final float DEFAULT_MIN_SCALE = 1f;
 
+    /**
+     * The largest bitmap width or height the hardware accelerated canvas can
+     * upload as a texture. It is 0 until the first accelerated draw tells us
+     * the real value.
+     */
+    private static int maxBitmapSize;
+
+    // Whether the bitmap of the current Drawable has been checked against
+    // maxBitmapSize, and the Drawable waiting for its downsampled copy
+    private boolean isBitmapSizeChecked;
+    private Drawable downsamplingDrawable;
+
     private float minScale = DEFAULT_MIN_SCALE;
     private float midScale = DEFAULT_MID_SCALE;
     private float maxScale = DEFAULT_MAX_SCALE;
 
     private boolean allowParentInterceptOnEdge = true;
 
+    // Created on the first touch, most views are never touched
     private MultiGestureDetector multiGestureDetector;
 
     // These are set so we don't keep allocating them on the heap
@@ -422,19 +567,65 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
     private final Matrix drawMatrix = new Matrix();
     private final Matrix suppMatrix = new Matrix();
     private final RectF displayRect = new RectF();
+    private final RectF tempDst = new RectF();
+    private final RectF scrollBounds = new RectF();
+    private final Matrix targetMatrix = new Matrix();
+    private final Matrix tempMatrix = new Matrix();
     private final float[] matrixValues = new float[9];
+    private final TransformState transformState = new TransformState();
 
     // Listeners
     private OnPhotoTapListener photoTapListener;
     private OnViewTapListener viewTapListener;
     private OnLongClickListener longClickListener;
+    private OnMatrixChangedListener matrixChangedListener;
+
+    private ZoomImageMetrics metrics;
+    private AnimationClock animationClock = AnimationClock.SYSTEM;
+    private ZoomDebugOverlay debugOverlay;
+
+    // The loader which has last loaded into this view, set by the loader
+    ZoomImageLoader imageLoader;
+    // Set while the view is linked to other views
+    ZoomLink link;
+    // Set while a change of the matrix isn't passed on to the linked views
+    private boolean isLinkMuted;
+    // When the image waiting for its first frame has been set
+    private long imageSetNanos;
+
+    private final Viewport viewport = new Viewport();
+    private boolean isMatrixChangedPending;
+    private final Runnable matrixChangedDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            isMatrixChangedPending = false;
+            dispatchMatrixChanged();
 
-    private int top, right, bottom, left;
-    private FlingRunnable currentFlingRunnable;
+            if (imageLoader != null) {
+                imageLoader.onMatrixChanged(ZoomImageView.this);
+            }
+        }
+    };
+
+    // What the base matrix has been calculated for
+    private int baseViewWidth, baseViewHeight;
+    private int baseDrawableWidth, baseDrawableHeight;
+    private int baseOrientation;
+    private ScaleType baseScaleType;
+    private FlingRunnable flingRunnable;
+    private AnimatedZoomRunnable currentZoomRunnable;
     private int scrollEdge = EDGE_BOTH;
+    private int verticalScrollEdge = EDGE_BOTH;
+    private final int overScrollDistance;
 
     private boolean isZoomEnabled;
     private ScaleType scaleType = ScaleType.FIT_CENTER;
+    private int orientation = ExifInterface.ORIENTATION_NORMAL;
+
+    // Zoom state waiting for both a Drawable and a size to be applied to
+    private PendingZoom pendingState;
+    // Prepared state waiting for the Drawable and the size it is for
+    private ZoomViewState preparedState;
 
     public ZoomImageView(Context context) {
         this(context, null);
@@ -449,9 +640,10 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
 
         super.setScaleType(ScaleType.MATRIX);
 
-        setOnTouchListener(this);
+        overScrollDistance = (int) ((OVERSCROLL_DISTANCE_DIP * getResources()
+                .getDisplayMetrics().density) + 0.5f);
 
-        multiGestureDetector = new MultiGestureDetector(context);
+        setOnTouchListener(this);
 
         setIsZoomEnabled(true);
     }
@@ -461,11 +653,128 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
      * Rectangle is relative to this View and includes all scaling and
      * translations.
      * 
-     * @return - RectF of Displayed Drawable
+     * @return - RectF of Displayed Drawable, a copy
      */
     public final RectF getDisplayRect() {
-        checkMatrixBounds();
-        return getDisplayRect(getDisplayMatrix());
+        final RectF rect = peekDisplayRect();
+        return (rect != null) ? new RectF(rect) : null;
+    }
+
+    /**
+     * Same as {@link #getDisplayRect()}, without the copy. The returned rect
+     * changes with the matrix, it must not be modified or kept.
+     */
+    final RectF peekDisplayRect() {
+        if (transformState.isDirty()) {
+            checkMatrixBounds();
+        }
+        return transformState.getDisplayRect();
+    }
+
+    /**
+     * Maps the part of the image visible in the view back to the pixels of the
+     * Drawable, which are the pixels of the source image for images set by
+     * the {@link ZoomImageLoader}. The rect is in the coordinates of the
+     * image before its orientation is applied.
+     *
+     * @return false if there is no image or none of it is visible.
+     */
+    public boolean getVisibleSourceRect(Rect out) {
+        final Drawable d = getDrawable();
+        final Matrix inverse = new Matrix();
+        if ((d == null) || !getDisplayMatrix().invert(inverse)) {
+            return false;
+        }
+
+        final RectF rect = new RectF(0, 0, getWidth(), getHeight());
+        inverse.mapRect(rect);
+        if (!rect.intersect(0, 0, d.getIntrinsicWidth(), d.getIntrinsicHeight())) {
+            return false;
+        }
+        rect.roundOut(out);
+        return !out.isEmpty();
+    }
+
+    /**
+     * Writes the part of the image visible in the view as a PNG, at the full
+     * resolution of the source and in the orientation it is shown in. Only
+     * the visible region is decoded, in strips, on a background thread, so
+     * even very large crops take little memory. Needs API 10, below it the
+     * export fails with an UnsupportedOperationException given to the
+     * listener.
+     *
+     * @param source
+     *            - The source of the image shown.
+     * @param out
+     *            - Where to write the PNG, closed when done.
+     * @param listener
+     *            - Called on the UI thread when done, also when the export
+     *            has failed, may be null.
+     * @throws IllegalStateException
+     *             if no image is visible.
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    public void exportVisibleRegion(final ImageSource source, final OutputStream out,
+            final OnExportFinishedListener listener) {
+        final Rect region = new Rect();
+        if (!getVisibleSourceRect(region)) {
+            throw new IllegalStateException("No image is visible");
+        }
+        final int orientation = this.orientation;
+        final Handler handler = new Handler(Looper.getMainLooper());
+
+        if (VERSION.SDK_INT < VERSION_CODES.GINGERBREAD_MR1) {
+            closeExport(out);
+            postExportFinished(handler, listener, new UnsupportedOperationException(
+                    "Exporting needs API 10"));
+            return;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Throwable error = null;
+                try {
+                    RegionExporter.writePng(source, region, orientation, out);
+                } catch (Throwable e) {
+                    // Out of memory included, the listener is told instead
+                    // of the process going down
+                    Log.w(LOG_TAG, "Unable to export " + source, e);
+                    error = e;
+                } finally {
+                    if (!closeExport(out) && (error == null)) {
+                        error = new IOException("Unable to close the export of " + source);
+                    }
+                }
+                postExportFinished(handler, listener, error);
+            }
+        }, "ZoomImageExport").start();
+    }
+
+    /**
+     * @return false if the stream couldn't be closed.
+     */
+    private static boolean closeExport(OutputStream out) {
+        try {
+            out.close();
+            return true;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to close the export", e);
+            return false;
+        }
+    }
+
+    private static void postExportFinished(Handler handler,
+            final OnExportFinishedListener listener, final Throwable error) {
+        if (listener == null) {
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onExportFinished(error);
+            }
+        });
     }
 
     /**
@@ -525,8 +834,65 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
      * @return float - current scale value
      */
     public final float getScale() {
-        suppMatrix.getValues(matrixValues);
-        return matrixValues[Matrix.MSCALE_X];
+        return transformState.getScale();
+    }
+
+    /**
+     * Zooms to the scale, keeping the focus point where it is. Calling it
+     * again while animating continues from where the animation is, towards
+     * the new target.
+     * 
+     * @param scale
+     *            - The scale as returned by {@link #getScale()}, limited to
+     *            the min and max scale.
+     * @param focusX
+     *            - The x of the focus point, in view coordinates.
+     * @param focusY
+     *            - The y of the focus point, in view coordinates.
+     * @param animate
+     *            - Whether to animate or jump to the scale.
+     */
+    public void zoomTo(float scale, float focusX, float focusY, boolean animate) {
+        if (getDrawable() == null) {
+            return;
+        }
+
+        scale = Math.min(Math.max(scale, minScale), maxScale);
+        final float delta = scale / getScale();
+        targetMatrix.set(suppMatrix);
+        targetMatrix.postScale(delta, delta, focusX, focusY);
+        moveTo(targetMatrix, animate);
+    }
+
+    /**
+     * Zooms and scrolls to show a region of the image as large as the view
+     * and the max scale allow, centered.
+     * 
+     * @param sourceRect
+     *            - The region, in the pixels of the Drawable before its
+     *            orientation is applied, as {@link #getVisibleSourceRect}.
+     * @param animate
+     *            - Whether to animate or jump to the region.
+     */
+    public void showRect(RectF sourceRect, boolean animate) {
+        final int viewWidth = getWidth(), viewHeight = getHeight();
+        if ((getDrawable() == null) || (viewWidth <= 0) || (viewHeight <= 0)) {
+            return;
+        }
+
+        // Where the region is without any zoom
+        tempDst.set(sourceRect);
+        baseMatrix.mapRect(tempDst);
+        if (tempDst.isEmpty()) {
+            return;
+        }
+
+        float scale = Math.min(viewWidth / tempDst.width(), viewHeight / tempDst.height());
+        scale = Math.min(Math.max(scale, minScale), maxScale);
+        targetMatrix.setScale(scale, scale);
+        targetMatrix.postTranslate((viewWidth / 2f) - (scale * tempDst.centerX()),
+                (viewHeight / 2f) - (scale * tempDst.centerY()));
+        moveTo(targetMatrix, animate);
     }
 
     /**
@@ -579,6 +945,39 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
         update();
     }
 
+    /**
+     * Returns the view to a freshly created state, so it can be reused for
+     * another image: stops any fling or zoom animation, resets the matrices,
+     * forgets any restored zoom state, cancels a pending load and releases the
+     * Drawable. The Drawable itself is left untouched, recycling its bitmap is
+     * up to the owner.
+     */
+    public void reset() {
+        if (link != null) {
+            link.remove(this);
+        }
+        if (imageLoader != null) {
+            // A load finishing later would put the old image into the reused view
+            imageLoader.cancel(this);
+            imageLoader = null;
+        }
+        stopAnimations();
+
+        pendingState = null;
+        preparedState = null;
+        downsamplingDrawable = null;
+        super.setImageDrawable(null);
+        orientation = ExifInterface.ORIENTATION_NORMAL;
+
+        baseMatrix.reset();
+        baseScaleType = null;
+        suppMatrix.reset();
+        transformState.invalidate();
+        setImageMatrix(getDisplayMatrix());
+        scrollEdge = EDGE_BOTH;
+        verticalScrollEdge = EDGE_BOTH;
+    }
+
     /**
      * Whether to allow the ImageView's parent to intercept the touch event when
      * the photo is scroll to it's horizontal edge.
@@ -596,21 +995,92 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
     @Override
     public void setImageDrawable(Drawable drawable) {
         super.setImageDrawable(drawable);
+        isBitmapSizeChecked = false;
+        markImageSet();
         update();
     }
 
+    /**
+     * Sets the Drawable together with the orientation it has to be shown in,
+     * see {@link #setOrientation(int)}.
+     */
+    public void setImageDrawable(Drawable drawable, int orientation) {
+        this.orientation = orientation;
+        setImageDrawable(drawable);
+    }
+
+    /**
+     * Sets the orientation of the image, one of the ExifInterface.ORIENTATION_
+     * constants, e.g. as read from the EXIF data of a camera photo. The
+     * rotation and flip are applied by the matrix the image is drawn with, so
+     * the bitmap doesn't need to be rotated. Resets the zoom.
+     */
+    public void setOrientation(int orientation) {
+        if (orientation != this.orientation) {
+            this.orientation = orientation;
+            update();
+        }
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
     @Override
     public void setImageResource(int resId) {
         super.setImageResource(resId);
+        markImageSet();
         update();
     }
 
     @Override
     public void setImageURI(Uri uri) {
         super.setImageURI(uri);
+        markImageSet();
         update();
     }
 
+    /**
+     * Starts recording performance metrics of this view into the given
+     * instance, which can be shared with other views and the loader.
+     * 
+     * @param metrics
+     *            - Where to record, null to stop recording.
+     */
+    public void setMetrics(ZoomImageMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ZoomImageMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Runs the zoom and fling animations on the given clock, e.g. a simulated
+     * one in tests. Stops the running animation.
+     */
+    void setAnimationClock(AnimationClock clock) {
+        stopAnimations();
+        animationClock = clock;
+        // The scroller is bound to the clock it has been created with
+        flingRunnable = null;
+    }
+
+    /**
+     * Shows an overlay with the decoded image outline coloured by sample
+     * level, the decode state, the scale, the cache usage and the recent frame
+     * times. Meant for tuning on real devices, a disabled overlay costs
+     * nothing but a null check per frame.
+     */
+    public void setDebugOverlayEnabled(boolean enabled) {
+        if (enabled && (debugOverlay == null)) {
+            debugOverlay = new ZoomDebugOverlay(getResources().getDisplayMetrics().density);
+        } else if (!enabled) {
+            debugOverlay = null;
+        }
+        invalidate();
+    }
+
     /**
      * Register a callback to be invoked when the Photo displayed by this view
      * is long-pressed.
@@ -645,37 +1115,36 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
         viewTapListener = listener;
     }
 
+    /**
+     * Register a callback to be invoked when the displayed part of the Photo
+     * changes.
+     * 
+     * @param listener
+     *            - Listener to be registered.
+     */
+    public final void setOnMatrixChangedListener(OnMatrixChangedListener listener) {
+        matrixChangedListener = listener;
+    }
+
     @Override
-    public final void onGlobalLayout() {
-        if (isZoomEnabled) {
-            final int top = getTop();
-            final int right = getRight();
-            final int bottom = getBottom();
-            final int left = getLeft();
-
-            /**
-             * We need to check whether the ImageView's bounds have changed.
-             * This would be easier if we targeted API 11+ as we could just use
-             * View.OnLayoutChangeListener. Instead we have to replicate the
-             * work, keeping track of the ImageView's bounds and then checking
-             * if the values change.
-             */
-            if ((top != this.top) || (bottom != this.bottom) || (left != this.left)
-                    || (right != this.right)) {
-                // Update our base matrix, as the bounds have changed
-                updateBaseMatrix(getDrawable());
-
-                // Update values as something has changed
-                this.top = top;
-                this.right = right;
-                this.bottom = bottom;
-                this.left = left;
-            }
+    public void setImageMatrix(Matrix matrix) {
+        super.setImageMatrix(matrix);
+
+        if ((link != null) && !isLinkMuted) {
+            link.onMatrixChanged(this);
+        }
+
+        // Coalesce all the changes made during a frame into one callback
+        if (((matrixChangedListener != null) || (imageLoader != null))
+                && !isMatrixChangedPending) {
+            isMatrixChangedPending = true;
+            animationClock.postOnAnimation(this, matrixChangedDispatcher);
         }
     }
 
     @Override
     public final boolean onTouch(View v, MotionEvent ev) {
+        final long startNanos = (metrics != null) ? System.nanoTime() : 0;
         boolean handled = false;
 
         if (isZoomEnabled) {
@@ -687,11 +1156,15 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
                         v.getParent().requestDisallowInterceptTouchEvent(true);
                     }
 
-                    // If we're flinging, and the user presses down, cancel
-                    // fling
-                    if (currentFlingRunnable != null) {
-                        currentFlingRunnable.cancelFling();
-                        currentFlingRunnable = null;
+                    // If we're flinging or zooming, and the user presses
+                    // down, stop it
+                    stopAnimations();
+                    if (link != null) {
+                        link.stopAnimations(this);
+                    }
+
+                    if (multiGestureDetector == null) {
+                        multiGestureDetector = new MultiGestureDetector(getContext());
                     }
                     break;
 
@@ -700,12 +1173,16 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
                     // If the user has zoomed less than min scale, zoom back
                     // to min scale
                     if (getScale() < minScale) {
-                        RectF rect = getDisplayRect();
+                        RectF rect = peekDisplayRect();
                         if (null != rect) {
-                            v.post(new AnimatedZoomRunnable(getScale(), minScale, rect.centerX(),
-                                    rect.centerY()));
+                            zoomTo(minScale, rect.centerX(), rect.centerY(), true);
                             handled = true;
                         }
+                    } else {
+                        // If the image has been pulled past its edges, let
+                        // it bounce back. A fling started by the gesture
+                        // detector takes this over.
+                        springBack();
                     }
                     break;
             }
@@ -716,22 +1193,112 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
             }
         }
 
+        if (metrics != null) {
+            metrics.recordTouch(System.nanoTime() - startNanos);
+        }
         return handled;
     }
 
     @Override
-    protected void onAttachedToWindow() {
-        super.onAttachedToWindow();
+    protected Parcelable onSaveInstanceState() {
+        final SavedState state = new SavedState(super.onSaveInstanceState());
+
+        final Drawable d = getDrawable();
+        if ((d != null) && (getWidth() > 0) && (getHeight() > 0)) {
+            // Find which point of the Drawable is in the middle of the view
+            final float[] center = new float[] {
+                    getWidth() / 2f, getHeight() / 2f
+            };
+            final Matrix inverse = new Matrix();
+            getDisplayMatrix().invert(inverse);
+            inverse.mapPoints(center);
+
+            state.scale = getScale();
+            state.centerX = center[0] / d.getIntrinsicWidth();
+            state.centerY = center[1] / d.getIntrinsicHeight();
+        } else if (pendingState != null) {
+            // Nothing has been shown yet, keep what we were given
+            state.scale = pendingState.scale;
+            state.centerX = pendingState.centerX;
+            state.centerY = pendingState.centerY;
+        } else {
+            return state.getSuperState();
+        }
+
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+
+        final SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+
+        pendingState = new PendingZoom(savedState.scale, savedState.centerX,
+                savedState.centerY);
+        applyPendingState();
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if ((maxBitmapSize == 0) && (VERSION.SDK_INT >= VERSION_CODES.ICE_CREAM_SANDWICH)
+                && canvas.isHardwareAccelerated()) {
+            maxBitmapSize = Math.min(canvas.getMaximumBitmapWidth(),
+                    canvas.getMaximumBitmapHeight());
+        }
+
+        // The bitmap would not be uploaded, so skip the frames until the
+        // downsampled copy replaces it
+        if (checkBitmapSize()) {
+            return;
+        }
 
-        getViewTreeObserver().addOnGlobalLayoutListener(this);
+        super.onDraw(canvas);
+
+        if (debugOverlay != null) {
+            debugOverlay.draw(canvas, this);
+        }
+
+        if ((imageSetNanos != 0) && (metrics != null) && (getDrawable() != null)) {
+            metrics.recordFirstFrame(System.nanoTime() - imageSetNanos);
+            imageSetNanos = 0;
+        }
     }
 
-    @SuppressWarnings("deprecation")
     @Override
-    protected void onDetachedFromWindow() {
-        super.onDetachedFromWindow();
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+
+        // Update our base matrix, as the bounds have changed
+        if (isZoomEnabled) {
+            updateBaseMatrix(getDrawable());
+        }
+    }
 
-        getViewTreeObserver().removeGlobalOnLayoutListener(this);
+    /**
+     * Maps the Drawable to where it is drawn right now into the given rect.
+     * Unlike {@link #getDisplayRect()} it never moves the image back within
+     * its bounds, so it can be called while drawing a fling or an animation.
+     *
+     * @param matrix
+     *            - Used for the mapping.
+     * @return false if there is no Drawable.
+     */
+    boolean getDrawnRect(Matrix matrix, RectF out) {
+        final Drawable d = getDrawable();
+        if (d == null) {
+            return false;
+        }
+        matrix.set(baseMatrix);
+        matrix.postConcat(suppMatrix);
+        out.set(0, 0, d.getIntrinsicWidth(), d.getIntrinsicHeight());
+        matrix.mapRect(out);
+        return true;
     }
 
     protected Matrix getDisplayMatrix() {
@@ -741,9 +1308,21 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
     }
 
     private final void update() {
+        // The Drawable might have changed
+        transformState.invalidate();
+        checkBitmapSize();
+
         if (isZoomEnabled) {
             super.setScaleType(ScaleType.MATRIX);
+            // The layout of this view only, the linked views keep their zoom
+            final boolean wasLinkMuted = isLinkMuted;
+            isLinkMuted = true;
             updateBaseMatrix(getDrawable());
+            isLinkMuted = wasLinkMuted;
+            if (link != null) {
+                // A new image or layout takes over the zoom of the link
+                link.syncTo(this);
+            }
         } else {
             resetMatrix();
         }
@@ -753,82 +1332,333 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
      * Helper method that simply checks the Matrix, and then displays the result
      */
     private void checkAndDisplayMatrix() {
+        // Every caller has just changed the matrix
+        transformState.invalidate();
         checkMatrixBounds();
         setImageMatrix(getDisplayMatrix());
     }
 
     private void checkMatrixBounds() {
-        final RectF rect = getDisplayRect(getDisplayMatrix());
+        final RectF rect = transformState.getDisplayRect();
         if (null == rect) {
             return;
         }
 
-        final float height = rect.height(), width = rect.width();
-        float deltaX = 0, deltaY = 0;
+        updateScrollEdges(rect);
+        getScrollBounds(rect, scrollBounds);
+        final float deltaX = Math.min(Math.max(rect.left, scrollBounds.left), scrollBounds.right)
+                - rect.left;
+        final float deltaY = Math.min(Math.max(rect.top, scrollBounds.top), scrollBounds.bottom)
+                - rect.top;
 
-        final int viewHeight = getHeight();
-        if (height <= viewHeight) {
-            switch (scaleType) {
-                case FIT_START:
-                    deltaY = -rect.top;
-                    break;
-                case FIT_END:
-                    deltaY = viewHeight - height - rect.top;
-                    break;
-                default:
-                    deltaY = ((viewHeight - height) / 2) - rect.top;
-                    break;
-            }
-        } else if (rect.top > 0) {
-            deltaY = -rect.top;
-        } else if (rect.bottom < viewHeight) {
-            deltaY = viewHeight - rect.bottom;
+        // Finally actually translate the matrix
+        suppMatrix.postTranslate(deltaX, deltaY);
+        transformState.offset(deltaX, deltaY);
+    }
+
+    private void updateScrollEdges(RectF rect) {
+        if (rect.height() <= getHeight()) {
+            verticalScrollEdge = EDGE_BOTH;
+        } else if (rect.top >= 0) {
+            verticalScrollEdge = EDGE_TOP;
+        } else if (rect.bottom <= getHeight()) {
+            verticalScrollEdge = EDGE_BOTTOM;
+        } else {
+            verticalScrollEdge = EDGE_NONE;
         }
 
-        final int viewWidth = getWidth();
-        if (width <= viewWidth) {
-            switch (scaleType) {
-                case FIT_START:
-                    deltaX = -rect.left;
-                    break;
-                case FIT_END:
-                    deltaX = viewWidth - width - rect.left;
-                    break;
-                default:
-                    deltaX = ((viewWidth - width) / 2) - rect.left;
-                    break;
-            }
+        if (rect.width() <= getWidth()) {
             scrollEdge = EDGE_BOTH;
-        } else if (rect.left > 0) {
+        } else if (rect.left >= 0) {
             scrollEdge = EDGE_LEFT;
-            deltaX = -rect.left;
-        } else if (rect.right < viewWidth) {
-            deltaX = viewWidth - rect.right;
+        } else if (rect.right <= getWidth()) {
             scrollEdge = EDGE_RIGHT;
         } else {
             scrollEdge = EDGE_NONE;
         }
-
-        // Finally actually translate the matrix
-        suppMatrix.postTranslate(deltaX, deltaY);
     }
 
     /**
-     * Helper method that maps the supplied Matrix to the current Drawable
-     * 
-     * @param matrix
-     *            - Matrix to map Drawable against
-     * @return RectF - Displayed Rectangle
+     * Sets the range the displayed rect may be moved in without leaving its
+     * bounds: left and right of the result bound rect.left, top and bottom
+     * bound rect.top. An image smaller than the view has a single position
+     * along that axis, depending on the scale type.
      */
-    private RectF getDisplayRect(Matrix matrix) {
-        Drawable d = getDrawable();
-        if (null != d) {
-            displayRect.set(0, 0, d.getIntrinsicWidth(), d.getIntrinsicHeight());
-            matrix.mapRect(displayRect);
-            return displayRect;
-        }
+    private void getScrollBounds(RectF rect, RectF bounds) {
+        getScrollBounds(rect, getWidth(), getHeight(), scaleType, bounds);
+    }
 
-        return null;
+    static void getScrollBounds(RectF rect, int viewWidth, int viewHeight,
+            ScaleType scaleType, RectF bounds) {
+        bounds.left = getMinOffset(rect.width(), viewWidth, scaleType);
+        bounds.right = (rect.width() <= viewWidth) ? bounds.left : 0;
+        bounds.top = getMinOffset(rect.height(), viewHeight, scaleType);
+        bounds.bottom = (rect.height() <= viewHeight) ? bounds.top : 0;
+    }
+
+    private static float getMinOffset(float size, int viewSize, ScaleType scaleType) {
+        if (size > viewSize) {
+            return viewSize - size;
+        }
+
+        switch (scaleType) {
+            case FIT_START:
+                return 0;
+            case FIT_END:
+                return viewSize - size;
+            default:
+                return (viewSize - size) / 2;
+        }
+    }
+
+    /**
+     * Moves the image by a drag. It can be pulled past its bounds, against a
+     * growing resistance, by up to the overscroll distance and springs back
+     * when released. Only the derived values are offset, a drag doesn't
+     * recalculate anything per event.
+     */
+    private void dragBy(float dx, float dy) {
+        final RectF rect = transformState.getDisplayRect();
+        if (null == rect) {
+            return;
+        }
+
+        getScrollBounds(rect, scrollBounds);
+        // Only along the axes the image can be scrolled on
+        final int overScroll = getOverScrollDistance();
+        dx = getDragDistance(dx, rect.left, scrollBounds.left, scrollBounds.right,
+                (scrollBounds.left != scrollBounds.right) ? overScroll : 0);
+        dy = getDragDistance(dy, rect.top, scrollBounds.top, scrollBounds.bottom,
+                (scrollBounds.top != scrollBounds.bottom) ? overScroll : 0);
+
+        suppMatrix.postTranslate(dx, dy);
+        transformState.offset(dx, dy);
+        updateScrollEdges(rect);
+        setImageMatrix(getDisplayMatrix());
+    }
+
+    private static float getDragDistance(float distance, float offset, float min, float max,
+            int maxOverScroll) {
+        final float overScroll = Math.max(min - offset, offset - max);
+        if ((overScroll > 0) && (maxOverScroll > 0)
+                && (((offset < min) && (distance < 0)) || ((offset > max) && (distance > 0)))) {
+            // Pulled further out, the further out the harder
+            distance *= Math.max(0f, 1f - (overScroll / maxOverScroll));
+        }
+
+        final float target = Math.min(Math.max(offset + distance, min - maxOverScroll), max
+                + maxOverScroll);
+        return target - offset;
+    }
+
+    /**
+     * @return How far the image may go past its edges, 0 if overscrolling has
+     *         been turned off with {@link #setOverScrollMode(int)}.
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    private int getOverScrollDistance() {
+        if ((VERSION.SDK_INT >= VERSION_CODES.GINGERBREAD)
+                && (getOverScrollMode() == OVER_SCROLL_NEVER)) {
+            return 0;
+        }
+        return overScrollDistance;
+    }
+
+    /**
+     * Helper method that maps the supplied Matrix to the current Drawable
+     * 
+     * @param matrix
+     *            - Matrix to map Drawable against
+     * @return RectF - Displayed Rectangle
+     */
+    private RectF getDisplayRect(Matrix matrix) {
+        Drawable d = getDrawable();
+        if (null != d) {
+            displayRect.set(0, 0, d.getIntrinsicWidth(), d.getIntrinsicHeight());
+            matrix.mapRect(displayRect);
+            return displayRect;
+        }
+
+        return null;
+    }
+
+    private void dispatchMatrixChanged() {
+        final RectF rect = transformState.getDisplayRect();
+        if ((matrixChangedListener == null) || (rect == null)) {
+            return;
+        }
+
+        viewport.scale = transformState.getScale();
+        viewport.displayRect.set(rect);
+
+        final float width = rect.width(), height = rect.height();
+        if ((width > 0) && (height > 0)) {
+            viewport.visibleRect.set(Math.max(0f, -rect.left / width),
+                    Math.max(0f, -rect.top / height),
+                    Math.min(1f, (getWidth() - rect.left) / width),
+                    Math.min(1f, (getHeight() - rect.top) / height));
+        } else {
+            viewport.visibleRect.setEmpty();
+        }
+
+        matrixChangedListener.onMatrixChanged(this, viewport);
+    }
+
+    /**
+     * Checks the bitmap of the Drawable against the largest texture size,
+     * once per Drawable and as soon as the size is known. A bitmap which is
+     * too large to be uploaded is downsampled on a background thread, then
+     * replaced by the copy. The copy keeps the intrinsic size of the
+     * original, so the current matrices stay valid.
+     *
+     * @return true while the Drawable waits for its downsampled copy, it
+     *         can't be drawn meanwhile.
+     */
+    private boolean checkBitmapSize() {
+        final Drawable d = getDrawable();
+        if ((d != null) && (d == downsamplingDrawable)) {
+            return true;
+        }
+        if (isBitmapSizeChecked || (maxBitmapSize == 0)) {
+            return false;
+        }
+        isBitmapSizeChecked = true;
+
+        if (!(d instanceof BitmapDrawable)) {
+            return false;
+        }
+        final Bitmap bitmap = ((BitmapDrawable) d).getBitmap();
+        if ((bitmap == null) || bitmap.isRecycled()) {
+            return false;
+        }
+
+        final int width = bitmap.getWidth(), height = bitmap.getHeight();
+        final int largerSide = Math.max(width, height);
+        if (largerSide <= maxBitmapSize) {
+            return false;
+        }
+
+        final float scale = (float) maxBitmapSize / largerSide;
+        final int scaledWidth = Math.max(1, (int) (width * scale));
+        final int scaledHeight = Math.max(1, (int) (height * scale));
+        final Handler handler = new Handler(Looper.getMainLooper());
+        downsamplingDrawable = d;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap downsampled = null;
+                try {
+                    downsampled = Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight,
+                            true);
+                } catch (OutOfMemoryError e) {
+                    Log.w(LOG_TAG, "Out of memory downsampling the image", e);
+                } catch (RuntimeException e) {
+                    // Recycled by its owner meanwhile
+                    Log.w(LOG_TAG, "Unable to downsample the image", e);
+                }
+
+                final Bitmap result = downsampled;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDownsampled(d, result);
+                    }
+                });
+            }
+        }, "ZoomImageDownsample").start();
+        return true;
+    }
+
+    private void onDownsampled(Drawable original, Bitmap downsampled) {
+        if (downsamplingDrawable == original) {
+            downsamplingDrawable = null;
+        }
+        if (getDrawable() != original) {
+            // Replaced meanwhile
+            if (downsampled != null) {
+                downsampled.recycle();
+            }
+            return;
+        }
+
+        if (downsampled != null) {
+            // Bypass our own setImageDrawable(), the zoom state must survive
+            // this
+            super.setImageDrawable(new SampledBitmapDrawable(getResources(), downsampled,
+                    original.getIntrinsicWidth(), original.getIntrinsicHeight()));
+        }
+        invalidate();
+    }
+
+    /**
+     * Shows the zoom of another view of the ZoomLink: the same scale, and the
+     * same point of the image, as a fraction of the displayed image, in the
+     * middle of the view. So the views follow each other whatever the sizes
+     * of the views and of their images. The bounds aren't checked, the view
+     * bounces with the one driving the zoom.
+     *
+     * @param centerX
+     *            - The x of the point, 0 is the left edge of the displayed
+     *            image and 1 the right.
+     * @param centerY
+     *            - The y of the point, 0 is the top edge and 1 the bottom.
+     */
+    void applyLinkedZoom(float scale, float centerX, float centerY) {
+        final Drawable d = getDrawable();
+        if ((d == null) || !isZoomEnabled || (getWidth() == 0) || (getHeight() == 0)) {
+            return;
+        }
+
+        suppMatrix.setScale(scale, scale);
+        final RectF rect = tempDst;
+        rect.set(0, 0, d.getIntrinsicWidth(), d.getIntrinsicHeight());
+        getDisplayMatrix().mapRect(rect);
+        suppMatrix.postTranslate((getWidth() / 2f) - (rect.left + (centerX * rect.width())),
+                (getHeight() / 2f) - (rect.top + (centerY * rect.height())));
+
+        transformState.invalidate();
+        final RectF displayed = transformState.getDisplayRect();
+        if (displayed != null) {
+            updateScrollEdges(displayed);
+        }
+
+        isLinkMuted = true;
+        setImageMatrix(getDisplayMatrix());
+        isLinkMuted = false;
+    }
+
+    /**
+     * Stops the running fling or zoom animation, if any.
+     */
+    void stopAnimations() {
+        if (flingRunnable != null) {
+            flingRunnable.cancelFling();
+            animationClock.removeCallbacks(this, flingRunnable);
+        }
+        if (currentZoomRunnable != null) {
+            animationClock.removeCallbacks(this, currentZoomRunnable);
+        }
+    }
+
+    /**
+     * Swaps the Drawable for one with the same intrinsic size, e.g. the same
+     * image decoded at another sample size, keeping the zoom state.
+     */
+    void swapDrawable(Drawable drawable) {
+        // Bypass our own setImageDrawable(), the matrices stay valid
+        super.setImageDrawable(drawable);
+        transformState.invalidate();
+        isBitmapSizeChecked = false;
+        checkBitmapSize();
+    }
+
+    /**
+     * @return The largest bitmap side which can be drawn, a safe default
+     *         until the first hardware accelerated draw has told us.
+     */
+    static int getMaxBitmapSize() {
+        return (maxBitmapSize != 0) ? maxBitmapSize : 2048;
     }
 
     /**
@@ -836,7 +1666,12 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
      */
     private void resetMatrix() {
         suppMatrix.reset();
+        transformState.invalidate();
+        // Only this view is reset, the linked views keep their zoom
+        final boolean wasLinkMuted = isLinkMuted;
+        isLinkMuted = true;
         setImageMatrix(getDisplayMatrix());
+        isLinkMuted = wasLinkMuted;
         checkMatrixBounds();
     }
 
@@ -850,52 +1685,98 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
         if (null == d) {
             return;
         }
+        if (metrics != null) {
+            metrics.recordBaseMatrixUpdate();
+        }
 
-        final float viewWidth = getWidth();
-        final float viewHeight = getHeight();
-        final int drawableWidth = d.getIntrinsicWidth();
-        final int drawableHeight = d.getIntrinsicHeight();
+        // Prepared ahead, e.g. on a worker thread, nothing to calculate
+        if (installPreparedState()) {
+            return;
+        }
 
-        baseMatrix.reset();
+        final int viewWidth = getWidth();
+        final int viewHeight = getHeight();
+        // The size of the image as shown, i.e. after its orientation
+        final boolean isTransposed = isTransposed();
+        final int drawableWidth = isTransposed ? d.getIntrinsicHeight() : d.getIntrinsicWidth();
+        final int drawableHeight = isTransposed ? d.getIntrinsicWidth() : d.getIntrinsicHeight();
+
+        // Nothing the base matrix depends on has changed, only reset the zoom
+        if ((scaleType == baseScaleType) && (viewWidth == baseViewWidth)
+                && (viewHeight == baseViewHeight) && (drawableWidth == baseDrawableWidth)
+                && (drawableHeight == baseDrawableHeight) && (orientation == baseOrientation)) {
+            resetMatrix();
+            applyPendingState();
+            return;
+        }
+        baseScaleType = scaleType;
+        baseViewWidth = viewWidth;
+        baseViewHeight = viewHeight;
+        baseDrawableWidth = drawableWidth;
+        baseDrawableHeight = drawableHeight;
+        baseOrientation = orientation;
+
+        setBaseMatrix(baseMatrix, scaleType, viewWidth, viewHeight, d.getIntrinsicWidth(),
+                d.getIntrinsicHeight(), orientation);
+
+        resetMatrix();
+        applyPendingState();
+    }
+
+    /**
+     * Calculates the base matrix, on any thread.
+     * 
+     * @param imageWidth
+     *            - The width of the image before its orientation is applied.
+     * @param imageHeight
+     *            - The height of the image before its orientation is applied.
+     */
+    static void setBaseMatrix(Matrix m, ScaleType scaleType, int viewWidth, int viewHeight,
+            int imageWidth, int imageHeight, int orientation) {
+        // The size of the image as shown
+        final boolean isTransposed = isTransposed(orientation);
+        final int drawableWidth = isTransposed ? imageHeight : imageWidth;
+        final int drawableHeight = isTransposed ? imageWidth : imageHeight;
 
-        final float widthScale = viewWidth / drawableWidth;
-        final float heightScale = viewHeight / drawableHeight;
+        m.reset();
+
+        final float widthScale = (float) viewWidth / drawableWidth;
+        final float heightScale = (float) viewHeight / drawableHeight;
 
         if (scaleType == ScaleType.CENTER) {
-            baseMatrix.postTranslate((viewWidth - drawableWidth) / 2F,
-                    (viewHeight - drawableHeight) / 2F);
+            m.postTranslate((viewWidth - drawableWidth) / 2F, (viewHeight - drawableHeight) / 2F);
 
         } else if (scaleType == ScaleType.CENTER_CROP) {
             float scale = Math.max(widthScale, heightScale);
-            baseMatrix.postScale(scale, scale);
-            baseMatrix.postTranslate((viewWidth - (drawableWidth * scale)) / 2F,
+            m.postScale(scale, scale);
+            m.postTranslate((viewWidth - (drawableWidth * scale)) / 2F,
                     (viewHeight - (drawableHeight * scale)) / 2F);
 
         } else if (scaleType == ScaleType.CENTER_INSIDE) {
             float scale = Math.min(1.0f, Math.min(widthScale, heightScale));
-            baseMatrix.postScale(scale, scale);
-            baseMatrix.postTranslate((viewWidth - (drawableWidth * scale)) / 2F,
+            m.postScale(scale, scale);
+            m.postTranslate((viewWidth - (drawableWidth * scale)) / 2F,
                     (viewHeight - (drawableHeight * scale)) / 2F);
 
         } else {
-            RectF mTempSrc = new RectF(0, 0, drawableWidth, drawableHeight);
-            RectF mTempDst = new RectF(0, 0, viewWidth, viewHeight);
+            final RectF src = new RectF(0, 0, drawableWidth, drawableHeight);
+            final RectF dst = new RectF(0, 0, viewWidth, viewHeight);
 
             switch (scaleType) {
                 case FIT_CENTER:
-                    baseMatrix.setRectToRect(mTempSrc, mTempDst, ScaleToFit.CENTER);
+                    m.setRectToRect(src, dst, ScaleToFit.CENTER);
                     break;
 
                 case FIT_START:
-                    baseMatrix.setRectToRect(mTempSrc, mTempDst, ScaleToFit.START);
+                    m.setRectToRect(src, dst, ScaleToFit.START);
                     break;
 
                 case FIT_END:
-                    baseMatrix.setRectToRect(mTempSrc, mTempDst, ScaleToFit.END);
+                    m.setRectToRect(src, dst, ScaleToFit.END);
                     break;
 
                 case FIT_XY:
-                    baseMatrix.setRectToRect(mTempSrc, mTempDst, ScaleToFit.FILL);
+                    m.setRectToRect(src, dst, ScaleToFit.FILL);
                     break;
 
                 default:
@@ -903,15 +1784,298 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
             }
         }
 
-        resetMatrix();
+        // Rotate and flip the image within its bounds before fitting it
+        final Matrix orientationMatrix = new Matrix();
+        setOrientationMatrix(orientationMatrix, orientation, imageWidth, imageHeight);
+        m.preConcat(orientationMatrix);
+    }
+
+    /**
+     * @return true if the orientation swaps the width and the height of the
+     *         image.
+     */
+    boolean isTransposed() {
+        return isTransposed(orientation);
+    }
+
+    static boolean isTransposed(int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+            case ExifInterface.ORIENTATION_ROTATE_90:
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Sets the matrix to map an image of the given size to the orientation,
+     * keeping its top left corner at the origin.
+     */
+    static void setOrientationMatrix(Matrix m, int orientation, int width, int height) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                m.setScale(-1, 1);
+                m.postTranslate(width, 0);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                m.setRotate(180);
+                m.postTranslate(width, height);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                m.setScale(1, -1);
+                m.postTranslate(0, height);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                m.setRotate(90);
+                m.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                m.setRotate(90);
+                m.postTranslate(height, 0);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                m.setRotate(90);
+                m.postScale(1, -1);
+                m.postTranslate(height, width);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                m.setRotate(270);
+                m.postTranslate(0, width);
+                break;
+            default:
+                m.reset();
+                break;
+        }
+    }
+
+    /**
+     * Restores the zoom and the center saved by onSaveInstanceState(), as soon
+     * as there is a Drawable and the view has been laid out.
+     */
+    private void applyPendingState() {
+        final Drawable d = getDrawable();
+        if ((pendingState == null) || (d == null) || !isZoomEnabled || (getWidth() == 0)
+                || (getHeight() == 0)) {
+            return;
+        }
+
+        // Where the saved center is with the base matrix only
+        final float[] center = new float[] {
+                pendingState.centerX * d.getIntrinsicWidth(),
+                pendingState.centerY * d.getIntrinsicHeight()
+        };
+        getDisplayMatrix().mapPoints(center);
+
+        suppMatrix.postScale(pendingState.scale, pendingState.scale, center[0], center[1]);
+        suppMatrix.postTranslate((getWidth() / 2f) - center[0], (getHeight() / 2f) - center[1]);
+        checkAndDisplayMatrix();
+
+        pendingState = null;
     }
 
-    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    private void postOnAnimation(View view, Runnable runnable) {
-        if (VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN) {
-            view.postOnAnimation(runnable);
+    /**
+     * @return true if a drag by the given distance pulls the image against
+     *         one of the edges it is scrolled to. Vertical edges only count
+     *         for mostly vertical drags, and only if a parent can take them
+     *         over, otherwise a ViewPager would be handed vertical drags of
+     *         an image which doesn't fill the view vertically.
+     */
+    private boolean isPullingAgainstEdge(float dx, float dy) {
+        if ((scrollEdge == EDGE_BOTH) || ((scrollEdge == EDGE_LEFT) && (dx >= 1f))
+                || ((scrollEdge == EDGE_RIGHT) && (dx <= -1f))) {
+            return true;
+        }
+
+        if (Math.abs(dy) <= Math.abs(dx)) {
+            return false;
+        }
+        final boolean isAtVerticalEdge = (verticalScrollEdge == EDGE_BOTH)
+                || ((verticalScrollEdge == EDGE_TOP) && (dy >= 1f))
+                || ((verticalScrollEdge == EDGE_BOTTOM) && (dy <= -1f));
+        // Pulling the image down would scroll the parent up
+        return isAtVerticalEdge && canParentScrollVertically((dy > 0) ? -1 : 1);
+    }
+
+    /**
+     * @param direction
+     *            - Negative to check scrolling up, positive for down.
+     * @return true if one of the ancestors can scroll vertically in the
+     *         direction. Before ICS, whether one of them is a vertically
+     *         scrolling view.
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private boolean canParentScrollVertically(int direction) {
+        ViewParent parent = getParent();
+        while (parent instanceof View) {
+            final View view = (View) parent;
+            if (VERSION.SDK_INT >= VERSION_CODES.ICE_CREAM_SANDWICH) {
+                if (view.canScrollVertically(direction)) {
+                    return true;
+                }
+            } else if ((view instanceof ScrollView) || (view instanceof AbsListView)) {
+                return true;
+            }
+            parent = view.getParent();
+        }
+        return false;
+    }
+
+    private void markImageSet() {
+        imageSetNanos = (metrics != null) ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a frame of an animation into the metrics, if any.
+     * 
+     * @param lastFrameNanos
+     *            - When the previous frame of the animation has been
+     *            recorded, 0 for the first frame.
+     * @return The value to pass for the next frame.
+     */
+    private long recordAnimationFrame(long lastFrameNanos) {
+        if (metrics == null) {
+            return 0;
+        }
+
+        final long now = System.nanoTime();
+        metrics.recordAnimationFrame((lastFrameNanos != 0) ? (now - lastFrameNanos) : 0);
+        return now;
+    }
+
+    private void fling(int velocityX, int velocityY) {
+        if (flingRunnable == null) {
+            flingRunnable = new FlingRunnable(getContext());
+        } else {
+            animationClock.removeCallbacks(this, flingRunnable);
+        }
+        if (flingRunnable.fling(velocityX, velocityY)) {
+            animationClock.postOnAnimation(this, flingRunnable);
+        }
+    }
+
+    private void springBack() {
+        if (flingRunnable == null) {
+            flingRunnable = new FlingRunnable(getContext());
         } else {
-            view.postDelayed(runnable, 16);
+            animationClock.removeCallbacks(this, flingRunnable);
+        }
+        if (flingRunnable.springBack()) {
+            animationClock.postOnAnimation(this, flingRunnable);
+        }
+    }
+
+    /**
+     * Installs a state prepared ahead, e.g. on a worker thread, so the view
+     * has nothing to calculate. It is installed right away if the view
+     * already has the size, image size, orientation and scale type the state
+     * has been prepared for. Otherwise it waits for them, and is installed
+     * instead of calculating the layout when the image is set, e.g. by the
+     * {@link ZoomImageLoader}. A state which can't match because the view
+     * already has another size or image only gives its zoom. The zoom is kept
+     * within the minimum and maximum scale of the view.
+     */
+    public void setViewState(ZoomViewState state) {
+        final float scale = Math.min(Math.max(state.getScale(), minScale), maxScale);
+        if (scale != state.getScale()) {
+            state = state.withZoom(scale, state.centerX, state.centerY);
+        }
+        preparedState = state;
+        pendingState = null;
+
+        final Drawable d = getDrawable();
+        if (installPreparedState() || (d == null) || !isZoomEnabled || (getWidth() == 0)
+                || (getHeight() == 0)) {
+            return;
+        }
+
+        // Prepared for another layout, keep only the zoom
+        preparedState = null;
+        pendingState = new PendingZoom(state.scale, state.centerX, state.centerY);
+        resetMatrix();
+        applyPendingState();
+    }
+
+    /**
+     * Keeps the layout prepared by the {@link ZoomImageLoader} on its worker
+     * for the image it is about to set, so the view only installs it. A
+     * restored zoom waiting to be applied wins.
+     */
+    void prepareViewState(ZoomViewState state) {
+        if (pendingState == null) {
+            preparedState = state;
+        }
+    }
+
+    /**
+     * @return true if the prepared state matches the view and has been
+     *         installed.
+     */
+    private boolean installPreparedState() {
+        final ZoomViewState state = preparedState;
+        final Drawable d = getDrawable();
+        if ((state == null) || (d == null) || !isZoomEnabled
+                || !state.matches(getWidth(), getHeight(), d.getIntrinsicWidth(),
+                        d.getIntrinsicHeight(), orientation, scaleType)) {
+            return false;
+        }
+        preparedState = null;
+        pendingState = null;
+        stopAnimations();
+
+        final boolean isTransposed = isTransposed();
+        baseScaleType = scaleType;
+        baseViewWidth = getWidth();
+        baseViewHeight = getHeight();
+        baseDrawableWidth = isTransposed ? d.getIntrinsicHeight() : d.getIntrinsicWidth();
+        baseDrawableHeight = isTransposed ? d.getIntrinsicWidth() : d.getIntrinsicHeight();
+        baseOrientation = orientation;
+
+        baseMatrix.set(state.baseMatrix);
+        suppMatrix.set(state.suppMatrix);
+        transformState.set(state.scale, state.displayRect);
+        updateScrollEdges(state.displayRect);
+        setImageMatrix(getDisplayMatrix());
+        return true;
+    }
+
+    /**
+     * Sets the zoom matrix to the target, within the bounds. The target is
+     * only checked once, an animation then just interpolates towards it.
+     */
+    private void moveTo(Matrix target, boolean animate) {
+        // Where the image is with the target
+        final Drawable d = getDrawable();
+        tempDst.set(0, 0, d.getIntrinsicWidth(), d.getIntrinsicHeight());
+        tempMatrix.set(baseMatrix);
+        tempMatrix.postConcat(target);
+        tempMatrix.mapRect(tempDst);
+
+        getScrollBounds(tempDst, scrollBounds);
+        target.postTranslate(
+                Math.min(Math.max(tempDst.left, scrollBounds.left), scrollBounds.right)
+                        - tempDst.left,
+                Math.min(Math.max(tempDst.top, scrollBounds.top), scrollBounds.bottom)
+                        - tempDst.top);
+
+        stopAnimations();
+        if (!animate) {
+            suppMatrix.set(target);
+            checkAndDisplayMatrix();
+            return;
+        }
+
+        if (currentZoomRunnable == null) {
+            currentZoomRunnable = new AnimatedZoomRunnable();
+        }
+        currentZoomRunnable.start(target);
+        animationClock.postOnAnimation(this, currentZoomRunnable);
+
+        if (imageLoader != null) {
+            imageLoader.onZoomTarget(this, tempDst.width(),
+                    AnimatedZoomRunnable.ZOOM_DURATION);
         }
     }
 
@@ -923,110 +2087,265 @@ public class ZoomImageView extends ImageView implements View.OnTouchListener,
         }
     }
 
-    private class AnimatedZoomRunnable implements Runnable {
-        // These are 'postScale' values, means they're compounded each iteration
-        static final float ANIMATION_SCALE_PER_ITERATION_IN = 1.07f;
-        static final float ANIMATION_SCALE_PER_ITERATION_OUT = 0.93f;
-
-        private final float focalX, focalY;
-        private final float targetZoom;
-        private final float deltaScale;
-
-        public AnimatedZoomRunnable(final float currentZoom, final float targetZoom,
-                final float focalX, final float focalY) {
-            this.targetZoom = targetZoom;
-            this.focalX = focalX;
-            this.focalY = focalY;
-
-            if (currentZoom < targetZoom) {
-                deltaScale = ANIMATION_SCALE_PER_ITERATION_IN;
-            } else {
-                deltaScale = ANIMATION_SCALE_PER_ITERATION_OUT;
+    /**
+     * Values derived from the current matrices. They are recalculated at most
+     * once after each change of the matrices, instead of on every query.
+     */
+    private class TransformState {
+        private float scale;
+        private boolean hasDisplayRect;
+        private boolean isDirty = true;
+
+        /**
+         * Marks the values as outdated, has to be called after every change
+         * of the matrices or the Drawable which isn't a plain translation.
+         */
+        public void invalidate() {
+            isDirty = true;
+        }
+
+        public boolean isDirty() {
+            return isDirty;
+        }
+
+        /**
+         * Takes over values calculated elsewhere, e.g. by a ZoomViewState.
+         */
+        public void set(float scale, RectF rect) {
+            this.scale = scale;
+            hasDisplayRect = true;
+            displayRect.set(rect);
+            isDirty = false;
+        }
+
+        /**
+         * Keeps the values up to date after suppMatrix.postTranslate(dx, dy).
+         */
+        public void offset(float dx, float dy) {
+            if (!isDirty && hasDisplayRect) {
+                displayRect.offset(dx, dy);
             }
         }
 
-        public void run() {
-            suppMatrix.postScale(deltaScale, deltaScale, focalX, focalY);
-            checkAndDisplayMatrix();
+        public float getScale() {
+            update();
+            return scale;
+        }
+
+        public RectF getDisplayRect() {
+            update();
+            return hasDisplayRect ? displayRect : null;
+        }
+
+        private void update() {
+            if (!isDirty) {
+                return;
+            }
+
+            suppMatrix.getValues(matrixValues);
+            scale = matrixValues[Matrix.MSCALE_X];
+            hasDisplayRect = ZoomImageView.this.getDisplayRect(getDisplayMatrix()) != null;
+
+            isDirty = false;
+        }
+    }
+
+    /**
+     * Animates the zoom matrix to a target in a fixed time, whatever the frame
+     * rate. Scale and translation are interpolated together, so a point
+     * which is at the same place in both matrices stays there throughout.
+     * One instance is reused for all the zoom animations of the view.
+     */
+    private class AnimatedZoomRunnable implements Runnable {
+        static final int ZOOM_DURATION = 200;
 
-            final float currentScale = getScale();
+        private final Interpolator interpolator = new AccelerateDecelerateInterpolator();
+        private final float[] values = new float[9];
+        private float startScale, startX, startY;
+        private float targetScale, targetX, targetY;
+        private long startTime;
+        private long lastFrameNanos;
 
-            if (((deltaScale > 1f) && (currentScale < targetZoom))
-                    || ((deltaScale < 1f) && (targetZoom < currentScale))) {
-                // We haven't hit our target scale yet, so post ourselves
-                // again
-                postOnAnimation(ZoomImageView.this, this);
+        /**
+         * Starts from the current zoom matrix.
+         */
+        public void start(Matrix target) {
+            suppMatrix.getValues(values);
+            startScale = values[Matrix.MSCALE_X];
+            startX = values[Matrix.MTRANS_X];
+            startY = values[Matrix.MTRANS_Y];
+
+            target.getValues(values);
+            targetScale = values[Matrix.MSCALE_X];
+            targetX = values[Matrix.MTRANS_X];
+            targetY = values[Matrix.MTRANS_Y];
+
+            startTime = animationClock.uptimeMillis();
+            lastFrameNanos = 0;
+        }
 
+        public void run() {
+            lastFrameNanos = recordAnimationFrame(lastFrameNanos);
+
+            final float t = Math.min(1f, (float) (animationClock.uptimeMillis() - startTime)
+                    / ZOOM_DURATION);
+            final float f = interpolator.getInterpolation(t);
+            final float scale = startScale + (f * (targetScale - startScale));
+            suppMatrix.setScale(scale, scale);
+            suppMatrix.postTranslate(startX + (f * (targetX - startX)), startY
+                    + (f * (targetY - startY)));
+
+            if (t < 1f) {
+                // In bounds as both ends are, no need to check
+                transformState.invalidate();
+                setImageMatrix(getDisplayMatrix());
+                animationClock.postOnAnimation(ZoomImageView.this, this);
             } else {
-                // We've scaled past our target zoom, so calculate the
-                // necessary scale so we're back at target zoom
-                final float delta = targetZoom / currentScale;
-                suppMatrix.postScale(delta, delta, focalX, focalY);
                 checkAndDisplayMatrix();
             }
         }
     }
 
+    /**
+     * Runs flings and spring backs with the scroller. Positions are the
+     * negated left and top of the displayed rect.
+     */
     private class FlingRunnable implements Runnable {
         private final ScrollerProxy scroller;
         private int currentX, currentY;
+        private int minX, maxX, minY, maxY;
+        private long lastFrameNanos;
 
         public FlingRunnable(Context context) {
-            scroller = new ScrollerProxy(context);
+            scroller = new ScrollerProxy(context, animationClock);
         }
 
         public void cancelFling() {
             scroller.forceFinished(true);
         }
 
-        public void fling(int viewWidth, int viewHeight, int velocityX, int velocityY) {
-            final RectF rect = getDisplayRect();
-            if (null == rect) {
-                return;
+        /**
+         * @return true if the image can move, the runnable has to be posted.
+         */
+        public boolean fling(int velocityX, int velocityY) {
+            if (!start()) {
+                return false;
             }
 
-            final int startX = Math.round(-rect.left);
-            final int minX, maxX, minY, maxY;
+            // Only bounce along the axes the image can be scrolled on
+            final int overScroll = getOverScrollDistance();
+            scroller.fling(currentX, currentY, velocityX, velocityY, minX, maxX, minY, maxY,
+                    (minX != maxX) ? overScroll : 0, (minY != maxY) ? overScroll : 0);
+            return true;
+        }
 
-            if (viewWidth < rect.width()) {
-                minX = 0;
-                maxX = Math.round(rect.width() - viewWidth);
-            } else {
-                minX = maxX = startX;
-            }
+        /**
+         * @return true if the image is past its bounds, the runnable has to be
+         *         posted.
+         */
+        public boolean springBack() {
+            return start() && scroller.springBack(currentX, currentY, minX, maxX, minY, maxY);
+        }
 
-            final int startY = Math.round(-rect.top);
-            if (viewHeight < rect.height()) {
-                minY = 0;
-                maxY = Math.round(rect.height() - viewHeight);
-            } else {
-                minY = maxY = startY;
+        private boolean start() {
+            final RectF rect = peekDisplayRect();
+            if (null == rect) {
+                return false;
             }
 
-            currentX = startX;
-            currentY = startY;
-
-            // If we actually can move, fling the scroller
-            if ((startX != maxX) || (startY != maxY)) {
-                scroller.fling(startX, startY, velocityX, velocityY, minX, maxX, minY, maxY, 0, 0);
-            }
+            getScrollBounds(rect, scrollBounds);
+            currentX = Math.round(-rect.left);
+            currentY = Math.round(-rect.top);
+            minX = Math.round(-scrollBounds.right);
+            maxX = Math.round(-scrollBounds.left);
+            minY = Math.round(-scrollBounds.bottom);
+            maxY = Math.round(-scrollBounds.top);
+            lastFrameNanos = 0;
+
+            // Nothing to scroll, and nothing to bring back
+            return (minX != maxX) || (minY != maxY) || (currentX != minX) || (currentY != minY);
         }
 
         @Override
         public void run() {
             if (scroller.computeScrollOffset()) {
+                lastFrameNanos = recordAnimationFrame(lastFrameNanos);
+
                 final int newX = scroller.getCurrX();
                 final int newY = scroller.getCurrY();
 
                 suppMatrix.postTranslate(currentX - newX, currentY - newY);
+                transformState.offset(currentX - newX, currentY - newY);
+                updateScrollEdges(transformState.getDisplayRect());
                 setImageMatrix(getDisplayMatrix());
 
                 currentX = newX;
                 currentY = newY;
 
                 // Post On animation
-                postOnAnimation(ZoomImageView.this, this);
+                animationClock.postOnAnimation(ZoomImageView.this, this);
+            } else {
+                // Done, settle the fraction of a pixel the scroller rounded
+                checkMatrixBounds();
+                setImageMatrix(getDisplayMatrix());
             }
         }
     }
+
+    /**
+     * A zoom level and normalized center waiting to be applied.
+     */
+    private static class PendingZoom {
+        final float scale;
+        final float centerX;
+        final float centerY;
+
+        public PendingZoom(float scale, float centerX, float centerY) {
+            this.scale = scale;
+            this.centerX = centerX;
+            this.centerY = centerY;
+        }
+    }
+
+    /**
+     * The zoom level and the normalized center of the viewport, so they can be
+     * restored on a view of a different size, e.g. after a rotation.
+     */
+    static class SavedState extends BaseSavedState {
+        float scale;
+        float centerX;
+        float centerY;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            scale = in.readFloat();
+            centerX = in.readFloat();
+            centerY = in.readFloat();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeFloat(scale);
+            out.writeFloat(centerX);
+            out.writeFloat(centerY);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR =
+                new Parcelable.Creator<SavedState>() {
+                    @Override
+                    public SavedState createFromParcel(Parcel in) {
+                        return new SavedState(in);
+                    }
+
+                    @Override
+                    public SavedState[] newArray(int size) {
+                        return new SavedState[size];
+                    }
+                };
+    }
 }
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import java.util.ArrayList;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+/**
+ * Keeps the zoom and pan of several ZoomImageViews in sync, e.g. for before
+ * and after comparisons. A gesture on any of the views moves all of them in
+ * the same frame, and only the view handling the gesture checks the bounds.
+ *
+ * Every view keeps its own matrix, the zoom is copied between them: the same
+ * scale, and the same point of the image, as a fraction of the displayed
+ * image, in the middle of each view. So the views may differ in size, and
+ * show images of different sizes, e.g. a photo and its edited half size
+ * version. Resetting one view, or setting another image, doesn't reset the
+ * others, the view takes over the zoom of the link instead. Load the same
+ * image into them with one {@link ZoomImageLoader} and they also share the
+ * decoded bitmap.
+ *
+ * All the methods have to be called from the UI thread.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class ZoomLink {
+
+    private final ArrayList<ZoomImageView> views = new ArrayList<ZoomImageView>();
+    private final Matrix tempMatrix = new Matrix();
+    private final RectF tempRect = new RectF();
+
+    /**
+     * Links the view. The first view linked keeps its zoom, the next ones take
+     * over the zoom of the link. A view can only be in one link.
+     */
+    public void add(ZoomImageView view) {
+        if (views.contains(view)) {
+            return;
+        }
+        if (view.link != null) {
+            view.link.remove(view);
+        }
+
+        views.add(view);
+        view.link = this;
+        syncTo(view);
+    }
+
+    /**
+     * Unlinks the view, it keeps its current zoom.
+     */
+    public void remove(ZoomImageView view) {
+        if (views.remove(view)) {
+            view.link = null;
+        }
+    }
+
+    /**
+     * Called by a linked view after it has changed its matrix.
+     */
+    void onMatrixChanged(ZoomImageView source) {
+        for (int i = 0; i < views.size(); i++) {
+            final ZoomImageView view = views.get(i);
+            if (view != source) {
+                copyZoom(source, view);
+            }
+        }
+    }
+
+    /**
+     * Shows the zoom of the link in the view, taken from the first other view
+     * showing an image.
+     */
+    void syncTo(ZoomImageView view) {
+        for (int i = 0; i < views.size(); i++) {
+            final ZoomImageView source = views.get(i);
+            if ((source != view) && copyZoom(source, view)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return false if the source shows nothing to copy.
+     */
+    private boolean copyZoom(ZoomImageView source, ZoomImageView target) {
+        final RectF rect = tempRect;
+        if (!source.getDrawnRect(tempMatrix, rect) || rect.isEmpty()) {
+            return false;
+        }
+
+        // The point of the image in the middle of the source
+        final float centerX = ((source.getWidth() / 2f) - rect.left) / rect.width();
+        final float centerY = ((source.getHeight() / 2f) - rect.top) / rect.height();
+        target.applyLinkedZoom(source.getScale(), centerX, centerY);
+        return true;
+    }
+
+    /**
+     * Called by a linked view when it is touched, only one view can drive the
+     * zoom at a time.
+     */
+    void stopAnimations(ZoomImageView source) {
+        for (int i = 0; i < views.size(); i++) {
+            final ZoomImageView view = views.get(i);
+            if (view != source) {
+                view.stopAnimations();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.support.v4.view.PagerAdapter;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewGroup.LayoutParams;
+
+/**
+ * A PagerAdapter showing one ZoomImageView per page, which reuses the views of
+ * destroyed pages instead of creating new ones. Subclasses only bind the
+ * content to the view of a page.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public abstract class ZoomPagerAdapter extends PagerAdapter {
+
+    private final ArrayList<ZoomImageView> recycledViews = new ArrayList<ZoomImageView>();
+
+    /**
+     * Called to show the given page in the view. The view is either new or
+     * has been {@link ZoomImageView#reset()}.
+     */
+    protected abstract void onBindView(ZoomImageView view, int position);
+
+    /**
+     * Called when the page is destroyed, before the view is reset and kept for
+     * reuse. Release what has been bound to the view here.
+     */
+    protected void onUnbindView(ZoomImageView view, int position) {
+    }
+
+    /**
+     * Called when there is no view to reuse. Override to configure the new
+     * views, e.g. their scale type or zoom levels.
+     */
+    protected ZoomImageView onCreateView(Context context) {
+        return new ZoomImageView(context);
+    }
+
+    @Override
+    public Object instantiateItem(ViewGroup container, int position) {
+        final int recycledCount = recycledViews.size();
+        final ZoomImageView view = recycledCount > 0 ? recycledViews.remove(recycledCount - 1)
+                : onCreateView(container.getContext());
+
+        onBindView(view, position);
+        container.addView(view, LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+
+        return view;
+    }
+
+    @Override
+    public void destroyItem(ViewGroup container, int position, Object object) {
+        final ZoomImageView view = (ZoomImageView) object;
+        container.removeView(view);
+
+        onUnbindView(view, position);
+        view.reset();
+        recycledViews.add(view);
+    }
+
+    @Override
+    public boolean isViewFromObject(View view, Object object) {
+        return view == object;
+    }
+}
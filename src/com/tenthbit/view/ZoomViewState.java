@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.widget.ImageView.ScaleType;
+
+/**
+ * The layout and zoom of an image in a ZoomImageView, calculated without the
+ * view. It is immutable and can be prepared on any thread, e.g. while the
+ * image is read in the background, then installed on the UI thread with
+ * {@link ZoomImageView#setViewState(ZoomViewState)}, which copies the
+ * matrices and calculates nothing. The {@link ZoomImageLoader} prepares one on
+ * its worker for every image it loads into a laid out view.
+ *
+ * The image size is the size before the orientation is applied, as the
+ * intrinsic size of the Drawables set by the {@link ZoomImageLoader}.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public final class ZoomViewState {
+
+    final int viewWidth, viewHeight;
+    final int imageWidth, imageHeight;
+    final int orientation;
+    final ScaleType scaleType;
+
+    // Never changed once created
+    final Matrix baseMatrix = new Matrix();
+    final Matrix suppMatrix = new Matrix();
+    final RectF displayRect;
+    final float scale;
+    final float centerX, centerY;
+    private final Rect visibleSourceRect = new Rect();
+    private final int sampleSize;
+
+    /**
+     * The image laid out as the scale type makes it, without any zoom.
+     *
+     * @param orientation
+     *            - One of the ExifInterface.ORIENTATION_ constants.
+     */
+    public ZoomViewState(int viewWidth, int viewHeight, int imageWidth, int imageHeight,
+            int orientation, ScaleType scaleType) {
+        this(viewWidth, viewHeight, imageWidth, imageHeight, orientation, scaleType, 1f, 0.5f,
+                0.5f);
+    }
+
+    /**
+     * The image laid out and zoomed, as a restored ZoomImageView would.
+     *
+     * @param orientation
+     *            - One of the ExifInterface.ORIENTATION_ constants.
+     * @param scale
+     *            - The zoom, as returned by {@link ZoomImageView#getScale()}.
+     * @param centerX
+     *            - The x of the point of the image to show in the middle of
+     *            the view, 0 is the left edge and 1 the right.
+     * @param centerY
+     *            - The y of the point, 0 is the top edge and 1 the bottom.
+     */
+    public ZoomViewState(int viewWidth, int viewHeight, int imageWidth, int imageHeight,
+            int orientation, ScaleType scaleType, float scale, float centerX, float centerY) {
+        if ((viewWidth <= 0) || (viewHeight <= 0) || (imageWidth <= 0) || (imageHeight <= 0)) {
+            throw new IllegalArgumentException("The sizes must be positive");
+        }
+        if (scale <= 0) {
+            throw new IllegalArgumentException("scale must be positive");
+        }
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.orientation = orientation;
+        this.scaleType = scaleType;
+        this.centerX = centerX;
+        this.centerY = centerY;
+
+        ZoomImageView.setBaseMatrix(baseMatrix, scaleType, viewWidth, viewHeight, imageWidth,
+                imageHeight, orientation);
+
+        // Zoom around the center, then move it to the middle of the view
+        final float[] center = new float[] {
+                centerX * imageWidth, centerY * imageHeight
+        };
+        baseMatrix.mapPoints(center);
+        suppMatrix.setScale(scale, scale, center[0], center[1]);
+        suppMatrix.postTranslate((viewWidth / 2f) - center[0], (viewHeight / 2f) - center[1]);
+
+        // Keep it within the bounds, as the view would
+        final Matrix displayMatrix = new Matrix(baseMatrix);
+        displayMatrix.postConcat(suppMatrix);
+        displayRect = new RectF(0, 0, imageWidth, imageHeight);
+        displayMatrix.mapRect(displayRect);
+
+        final RectF bounds = new RectF();
+        ZoomImageView.getScrollBounds(displayRect, viewWidth, viewHeight, scaleType, bounds);
+        final float deltaX = Math.min(Math.max(displayRect.left, bounds.left), bounds.right)
+                - displayRect.left;
+        final float deltaY = Math.min(Math.max(displayRect.top, bounds.top), bounds.bottom)
+                - displayRect.top;
+        suppMatrix.postTranslate(deltaX, deltaY);
+        displayMatrix.postTranslate(deltaX, deltaY);
+        displayRect.offset(deltaX, deltaY);
+
+        final float[] values = new float[9];
+        suppMatrix.getValues(values);
+        this.scale = values[Matrix.MSCALE_X];
+
+        // The part of the image which is visible, and the sample size it
+        // needs to be decoded at to be sharp
+        final Matrix inverse = new Matrix();
+        final RectF visible = new RectF(0, 0, viewWidth, viewHeight);
+        if (displayMatrix.invert(inverse)) {
+            inverse.mapRect(visible);
+            if (visible.intersect(0, 0, imageWidth, imageHeight)) {
+                visible.roundOut(visibleSourceRect);
+            }
+        }
+
+        final int shownWidth = ZoomImageView.isTransposed(orientation) ? imageHeight
+                : imageWidth;
+        final float pixelScale = displayRect.width() / shownWidth;
+        int sampleSize = 1;
+        while (((sampleSize * 2 * pixelScale) <= 1)
+                && ((sampleSize * 2) <= Math.max(imageWidth, imageHeight))) {
+            sampleSize *= 2;
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * @return A state with the same layout and another zoom.
+     */
+    public ZoomViewState withZoom(float scale, float centerX, float centerY) {
+        return new ZoomViewState(viewWidth, viewHeight, imageWidth, imageHeight, orientation,
+                scaleType, scale, centerX, centerY);
+    }
+
+    /**
+     * @return The zoom, which may differ from the one asked for if the
+     *         image has been kept within its bounds.
+     */
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * @return Where the image is in the view, a copy.
+     */
+    public RectF getDisplayRect() {
+        return new RectF(displayRect);
+    }
+
+    /**
+     * @return The part of the image which is visible, in the pixels of the
+     *         image before its orientation is applied, a copy. It is what has
+     *         to be decoded first, at {@link #getSampleSize()}.
+     */
+    public Rect getVisibleSourceRect() {
+        return new Rect(visibleSourceRect);
+    }
+
+    /**
+     * @return The largest power of two sample size which still shows the
+     *         image at least at the resolution of the screen.
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @return true if the state has been prepared for this layout.
+     */
+    boolean matches(int viewWidth, int viewHeight, int imageWidth, int imageHeight,
+            int orientation, ScaleType scaleType) {
+        return (viewWidth == this.viewWidth) && (viewHeight == this.viewHeight)
+                && (imageWidth == this.imageWidth) && (imageHeight == this.imageHeight)
+                && (orientation == this.orientation) && (scaleType == this.scaleType);
+    }
+}
@@ -0,0 +1,447 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.zoomimageview.sample;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.annotation.TargetApi;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.MotionEvent.PointerCoords;
+import android.view.View;
+
+import com.tenthbit.view.ZoomImageView;
+
+/**
+ * Records the touch events received by a window, and replays them into the
+ * root view of a window, measuring the time and allocations spent on every
+ * event. Recordings can be saved and loaded, so the same gestures (pinches,
+ * double taps, drags, flings) can be replayed as a regression or performance
+ * check.
+ *
+ * The events are recorded and replayed at the root, so the interception of
+ * the parents, e.g. a ViewPager taking over a swipe, is part of the
+ * recording. Call {@link #record(MotionEvent)} from
+ * Activity.dispatchTouchEvent(), and replay into
+ * getWindow().getDecorView().
+ *
+ * A replay dispatches the events with event times spaced as recorded from
+ * the time of the given {@link Clock}. Velocities, and so flings, only depend
+ * on the event times and are the same on every replay.
+ * {@link #replay(View, ZoomImageView)} dispatches them synchronously: under
+ * the system clock in one burst, while a simulated clock can run the
+ * animation frames due between the events, see {@link Clock#waitUntil(long)}.
+ * {@link #replay(View, ZoomImageView, Handler, OnReplayedListener)} posts
+ * them at their times instead, so frames are drawn between them as during
+ * the recording.
+ *
+ * All the methods have to be called from the UI thread.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class GestureRecorder {
+
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The time base of the replayed events.
+     */
+    public static interface Clock {
+        /**
+         * @return The current time in milliseconds, in the time base of
+         *         SystemClock.uptimeMillis().
+         */
+        public long uptimeMillis();
+
+        /**
+         * Called before dispatching a replayed event, with its time.
+         */
+        public void waitUntil(long uptimeMillis);
+    }
+
+    /**
+     * The real time base, used unless another clock is set. It doesn't
+     * wait, the events are dispatched as fast as they are handled.
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public void waitUntil(long uptimeMillis) {
+        }
+    };
+
+    /**
+     * What replaying the recorded events has cost, and where it left the
+     * view.
+     */
+    public static class Report {
+        private final long[] cpuNanos;
+        private final int[] allocations;
+        private int skippedEvents;
+        private float finalScale;
+        private final RectF finalDisplayRect = new RectF();
+
+        Report(int eventCount) {
+            cpuNanos = new long[eventCount];
+            allocations = new int[eventCount];
+        }
+
+        public int getEventCount() {
+            return cpuNanos.length;
+        }
+
+        /**
+         * @return Thread CPU time spent handling the event.
+         */
+        public long getCpuNanos(int event) {
+            return cpuNanos[event];
+        }
+
+        /**
+         * @return Objects allocated on the UI thread while handling the event.
+         */
+        public int getAllocations(int event) {
+            return allocations[event];
+        }
+
+        public long getTotalCpuNanos() {
+            long total = 0;
+            for (long nanos : cpuNanos) {
+                total += nanos;
+            }
+            return total;
+        }
+
+        public int getTotalAllocations() {
+            int total = 0;
+            for (int count : allocations) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * @return Multi-touch events which weren't replayed, as they can't be
+         *         created below API 9.
+         */
+        public int getSkippedEvents() {
+            return skippedEvents;
+        }
+
+        public float getFinalScale() {
+            return finalScale;
+        }
+
+        /**
+         * @return The display rect of the view after the last event, empty if
+         *         the view had no Drawable.
+         */
+        public RectF getFinalDisplayRect() {
+            return finalDisplayRect;
+        }
+    }
+
+    /**
+     * Called once a posted replay has dispatched its last event.
+     */
+    public static interface OnReplayedListener {
+        public void onReplayed(Report report);
+    }
+
+    private static class RecordedEvent {
+        long eventTime;
+        long downTime;
+        int action;
+        int[] pointerIds;
+        float[] xs;
+        float[] ys;
+    }
+
+    private final ArrayList<RecordedEvent> events = new ArrayList<RecordedEvent>();
+    private Clock clock = SYSTEM_CLOCK;
+    private boolean isRecording;
+    private long recordingStartTime;
+
+    /**
+     * Sets the time base of the replayed events, e.g. a fixed one so the
+     * event times are the same on every replay.
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Starts recording the events passed to {@link #record(MotionEvent)},
+     * appending them to the ones already recorded.
+     */
+    public void startRecording() {
+        isRecording = true;
+        recordingStartTime = -1;
+    }
+
+    public void stopRecording() {
+        isRecording = false;
+    }
+
+    public boolean isRecording() {
+        return isRecording;
+    }
+
+    public int getEventCount() {
+        return events.size();
+    }
+
+    /**
+     * @return The time from the first to the last recorded event.
+     */
+    public long getDurationMillis() {
+        return events.isEmpty() ? 0 : events.get(events.size() - 1).eventTime;
+    }
+
+    public void clear() {
+        events.clear();
+    }
+
+    /**
+     * Records an event received by the window, in the coordinates of its
+     * root view. Ignored unless recording.
+     */
+    public void record(MotionEvent ev) {
+        if (!isRecording) {
+            return;
+        }
+
+        if (recordingStartTime < 0) {
+            // Keep the time between this and any earlier recording
+            recordingStartTime = ev.getEventTime()
+                    - (events.isEmpty() ? 0 : events.get(events.size() - 1).eventTime);
+        }
+
+        final RecordedEvent event = new RecordedEvent();
+        event.eventTime = ev.getEventTime() - recordingStartTime;
+        event.downTime = ev.getDownTime() - recordingStartTime;
+        event.action = ev.getAction();
+
+        final int pointerCount = ev.getPointerCount();
+        event.pointerIds = new int[pointerCount];
+        event.xs = new float[pointerCount];
+        event.ys = new float[pointerCount];
+        for (int i = 0; i < pointerCount; i++) {
+            event.pointerIds[i] = ev.getPointerId(i);
+            event.xs[i] = ev.getX(i);
+            event.ys[i] = ev.getY(i);
+        }
+
+        events.add(event);
+    }
+
+    /**
+     * Replays the recorded events into the root view, and returns once they
+     * have all been handled.
+     *
+     * @param root
+     *            - The root view of the window, so the events go through the
+     *            whole hierarchy as recorded.
+     * @param view
+     *            - The view whose final state is reported, may be null.
+     */
+    public Report replay(View root, ZoomImageView view) {
+        stopRecording();
+
+        final Report report = new Report(events.size());
+        final long startTime = clock.uptimeMillis();
+        for (int i = 0; i < events.size(); i++) {
+            dispatch(root, i, startTime, report);
+        }
+
+        reportFinalState(view, report);
+        return report;
+    }
+
+    /**
+     * Replays the recorded events into the root view, each one posted to the
+     * handler at its time, and returns right away. Handlers run on the system
+     * uptime, so the clock set with {@link #setClock(Clock)} isn't used.
+     * Changes to the recording only apply to the next replay.
+     *
+     * @param root
+     *            - The root view of the window, so the events go through the
+     *            whole hierarchy as recorded.
+     * @param view
+     *            - The view whose final state is reported, may be null.
+     * @param listener
+     *            - Called after the last event, may be null.
+     */
+    public void replay(final View root, final ZoomImageView view, final Handler handler,
+            final OnReplayedListener listener) {
+        stopRecording();
+
+        final ArrayList<RecordedEvent> events = new ArrayList<RecordedEvent>(this.events);
+        final Report report = new Report(events.size());
+        final long startTime = SystemClock.uptimeMillis();
+        handler.postAtTime(new Runnable() {
+            private int next;
+
+            @Override
+            public void run() {
+                // Catch up with the events due, if the frames are late
+                while ((next < events.size())
+                        && ((startTime + events.get(next).eventTime) <= SystemClock
+                                .uptimeMillis())) {
+                    dispatch(root, events, next++, startTime, report);
+                }
+
+                if (next < events.size()) {
+                    handler.postAtTime(this, startTime + events.get(next).eventTime);
+                } else {
+                    reportFinalState(view, report);
+                    if (listener != null) {
+                        listener.onReplayed(report);
+                    }
+                }
+            }
+        }, startTime);
+    }
+
+    private static void reportFinalState(ZoomImageView view, Report report) {
+        if (view != null) {
+            report.finalScale = view.getScale();
+            final RectF rect = view.getDisplayRect();
+            if (rect != null) {
+                report.finalDisplayRect.set(rect);
+            }
+        }
+    }
+
+    private void dispatch(View root, int index, long startTime, Report report) {
+        clock.waitUntil(startTime + events.get(index).eventTime);
+        dispatch(root, events, index, startTime, report);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void dispatch(View root, ArrayList<RecordedEvent> events, int index,
+            long startTime, Report report) {
+        final RecordedEvent event = events.get(index);
+
+        final MotionEvent ev;
+        if (VERSION.SDK_INT >= VERSION_CODES.GINGERBREAD) {
+            ev = obtain(event, startTime);
+        } else if (event.pointerIds.length == 1) {
+            ev = MotionEvent.obtain(startTime + event.downTime, startTime + event.eventTime,
+                    event.action, event.xs[0], event.ys[0], 0);
+        } else {
+            report.skippedEvents++;
+            return;
+        }
+
+        Debug.startAllocCounting();
+        final int allocCount = Debug.getThreadAllocCount();
+        final long cpuNanos = Debug.threadCpuTimeNanos();
+
+        root.dispatchTouchEvent(ev);
+
+        report.cpuNanos[index] = Debug.threadCpuTimeNanos() - cpuNanos;
+        report.allocations[index] = Debug.getThreadAllocCount() - allocCount;
+        Debug.stopAllocCounting();
+
+        ev.recycle();
+    }
+
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    private static MotionEvent obtain(RecordedEvent event, long startTime) {
+        final int pointerCount = event.pointerIds.length;
+        final PointerCoords[] coords = new PointerCoords[pointerCount];
+        for (int i = 0; i < pointerCount; i++) {
+            coords[i] = new PointerCoords();
+            coords[i].x = event.xs[i];
+            coords[i].y = event.ys[i];
+            coords[i].pressure = 1f;
+            coords[i].size = 1f;
+        }
+
+        return MotionEvent.obtain(startTime + event.downTime, startTime + event.eventTime,
+                event.action, pointerCount, event.pointerIds, coords, 0, 1f, 1f, 0, 0,
+                InputDevice.SOURCE_TOUCHSCREEN, 0);
+    }
+
+    /**
+     * Writes the recorded events, so they can be loaded with
+     * {@link #readFrom(DataInputStream)} later or on another device.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(events.size());
+        for (RecordedEvent event : events) {
+            out.writeLong(event.eventTime);
+            out.writeLong(event.downTime);
+            out.writeInt(event.action);
+            out.writeInt(event.pointerIds.length);
+            for (int i = 0; i < event.pointerIds.length; i++) {
+                out.writeInt(event.pointerIds[i]);
+                out.writeFloat(event.xs[i]);
+                out.writeFloat(event.ys[i]);
+            }
+        }
+    }
+
+    /**
+     * Replaces the recorded events with the ones written by
+     * {@link #writeTo(DataOutputStream)}.
+     */
+    public void readFrom(DataInputStream in) throws IOException {
+        final int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported recording version " + version);
+        }
+
+        events.clear();
+        final int count = in.readInt();
+        for (int e = 0; e < count; e++) {
+            final RecordedEvent event = new RecordedEvent();
+            event.eventTime = in.readLong();
+            event.downTime = in.readLong();
+            event.action = in.readInt();
+
+            final int pointerCount = in.readInt();
+            event.pointerIds = new int[pointerCount];
+            event.xs = new float[pointerCount];
+            event.ys = new float[pointerCount];
+            for (int i = 0; i < pointerCount; i++) {
+                event.pointerIds[i] = in.readInt();
+                event.xs[i] = in.readFloat();
+                event.ys[i] = in.readFloat();
+            }
+            events.add(event);
+        }
+    }
+}
@@ -34,7 +34,7 @@ import android.widget.ListView;
 public class MainActivity extends ListActivity {
 
     public static final String[] options = {
-            "One Image Sample", "ViewPager Sample"
+            "One Image Sample", "ViewPager Sample", "Stress Test"
     };
 
     @TargetApi(Build.VERSION_CODES.HONEYCOMB)
@@ -64,6 +64,9 @@ public class MainActivity extends ListActivity {
             case 1:
                 intent = new Intent(this, ViewPagerSampleActivity.class);
                 break;
+            case 2:
+                intent = new Intent(this, StressTestActivity.class);
+                break;
         }
 
         startActivity(intent);
@@ -0,0 +1,628 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.zoomimageview.sample;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.Choreographer;
+import android.view.Gravity;
+import android.view.MotionEvent;
+import android.view.MotionEvent.PointerCoords;
+import android.view.ViewGroup.LayoutParams;
+import android.view.WindowManager;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.tenthbit.view.EncodedImageCache;
+import com.tenthbit.view.ImageSource;
+import com.tenthbit.view.ZoomImageLoader;
+import com.tenthbit.view.ZoomImageMetrics;
+import com.tenthbit.view.ZoomImageView;
+import com.tenthbit.view.ZoomPagerAdapter;
+import com.tenthbit.view.ZoomViewPager;
+
+/**
+ * Swipes, pinches, double taps and flings through hundreds of large synthetic
+ * images, then reports peak memory, decodes, GCs and frame times to logcat
+ * and to stress_report.txt in the app's external files directory.
+ *
+ * Runs unattended on a device or an emulator, it needs a window to draw in.
+ * The gestures are dispatched at their event times, one event per frame, so
+ * the frame times include handling them. The activity isn't exported, so it
+ * is started as root:
+ *
+ * <pre>
+ * adb root
+ * adb shell am start -n com.tenthbit.zoomimageview/.sample.StressTestActivity \
+ *         --ei imageCount 300 --ei cacheBytes 16777216
+ * </pre>
+ *
+ * A recording written by {@link GestureRecorder#writeTo(java.io.DataOutputStream)}
+ * can be passed with --es gestures &lt;path&gt;, it is then replayed at its
+ * recorded pace on every fourth page.
+ */
+public class StressTestActivity extends Activity {
+
+    private static final String LOG_TAG = "StressTest";
+
+    public static final String EXTRA_IMAGE_COUNT = "imageCount";
+    public static final String EXTRA_CACHE_BYTES = "cacheBytes";
+    public static final String EXTRA_GESTURES = "gestures";
+
+    private static final int DEFAULT_IMAGE_COUNT = 200;
+    private static final int IMAGE_WIDTH = 2400;
+    private static final int IMAGE_HEIGHT = 1800;
+
+    private static final long STEP_INTERVAL_MS = 300;
+    // A touchscreen reports about one event per frame
+    private static final long GESTURE_EVENT_INTERVAL_MS = 16;
+    private static final int MAX_FRAMES = 100000;
+
+    private static class StressPagerAdapter extends ZoomPagerAdapter {
+        private final ZoomImageLoader imageLoader;
+        private final File[] files;
+        private final ZoomImageMetrics metrics;
+        private final SparseArray<ZoomImageView> activeViews = new SparseArray<ZoomImageView>();
+
+        public StressPagerAdapter(ZoomImageLoader imageLoader, File[] files,
+                ZoomImageMetrics metrics) {
+            this.imageLoader = imageLoader;
+            this.files = files;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int getCount() {
+            return files.length;
+        }
+
+        @Override
+        protected void onBindView(ZoomImageView view, int position) {
+            view.setMetrics(metrics);
+            activeViews.put(position, view);
+
+            imageLoader.load(view, ImageSource.fromFile(files[position]));
+            if (position + 1 < files.length) {
+                imageLoader.prefetch(ImageSource.fromFile(files[position + 1]));
+            }
+        }
+
+        @Override
+        protected void onUnbindView(ZoomImageView view, int position) {
+            imageLoader.cancel(view);
+            activeViews.remove(position);
+        }
+
+        public ZoomImageView getView(int position) {
+            return activeViews.get(position);
+        }
+    }
+
+    private ZoomViewPager viewPager;
+    private TextView statusView;
+    private StressPagerAdapter adapter;
+    private ZoomImageLoader imageLoader;
+    private final ZoomImageMetrics metrics = new ZoomImageMetrics();
+    private final Handler handler = new Handler();
+    private GestureRecorder gestures;
+    // Synthesized events waiting for their event time
+    private final ArrayList<MotionEvent> pendingEvents = new ArrayList<MotionEvent>();
+    private long replayCpuNanos;
+    private int replayAllocations;
+
+    private int step;
+    private long startTime;
+    private int startGcCount;
+    private long peakJavaHeap;
+    private long peakNativeHeap;
+
+    private final long[] frameNanos = new long[MAX_FRAMES];
+    private int frameCount;
+    private long lastFrameNanos;
+    private boolean isRunning;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+
+        final FrameLayout content = new FrameLayout(this);
+        content.setBackgroundColor(Color.BLACK);
+
+        viewPager = new ZoomViewPager(this);
+        content.addView(viewPager, LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+
+        statusView = new TextView(this);
+        statusView.setTextColor(Color.WHITE);
+        statusView.setBackgroundColor(0x99000000);
+        content.addView(statusView, new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT,
+                LayoutParams.WRAP_CONTENT, Gravity.BOTTOM));
+
+        setContentView(content);
+
+        final int imageCount = getIntent().getIntExtra(EXTRA_IMAGE_COUNT, DEFAULT_IMAGE_COUNT);
+        final int cacheBytes = getIntent().getIntExtra(EXTRA_CACHE_BYTES,
+                (int) (Runtime.getRuntime().maxMemory() / 8));
+        imageLoader = new ZoomImageLoader(this, new EncodedImageCache(cacheBytes));
+        imageLoader.setMetrics(metrics);
+
+        final String gesturesPath = getIntent().getStringExtra(EXTRA_GESTURES);
+        if (gesturesPath != null) {
+            gestures = readGestures(new File(gesturesPath));
+        }
+
+        new GenerateImagesTask().execute(imageCount);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        isRunning = false;
+        handler.removeCallbacksAndMessages(null);
+        for (MotionEvent event : pendingEvents) {
+            event.recycle();
+        }
+        pendingEvents.clear();
+        imageLoader.quit();
+    }
+
+    private static GestureRecorder readGestures(File file) {
+        final GestureRecorder recorder = new GestureRecorder();
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            try {
+                recorder.readFrom(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to read the gestures " + file, e);
+            return null;
+        }
+        return recorder;
+    }
+
+    /**
+     * Writes the synthetic images once, they are reused by later runs.
+     */
+    private class GenerateImagesTask extends AsyncTask<Integer, Integer, File[]> {
+        @Override
+        protected File[] doInBackground(Integer... params) {
+            final int count = params[0];
+            final File directory = new File(getCacheDir(), "stress");
+            directory.mkdirs();
+
+            final File[] files = new File[count];
+            Bitmap bitmap = null;
+            for (int i = 0; i < count; i++) {
+                files[i] = new File(directory, "image" + i + ".jpg");
+                if (files[i].exists()) {
+                    continue;
+                }
+
+                if (bitmap == null) {
+                    bitmap = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT,
+                            Bitmap.Config.ARGB_8888);
+                }
+                drawImage(bitmap, i);
+
+                try {
+                    final FileOutputStream out = new FileOutputStream(files[i]);
+                    try {
+                        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Unable to write " + files[i], e);
+                }
+                publishProgress(i + 1, count);
+            }
+
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            return files;
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            statusView.setText("Generating images " + values[0] + " / " + values[1]);
+        }
+
+        @Override
+        protected void onPostExecute(File[] files) {
+            if (isFinishing()) {
+                return;
+            }
+            startScenario(files);
+        }
+    }
+
+    /**
+     * Draws a gradient with a grid and the image number, detailed enough for
+     * the JPEGs to be of a realistic size.
+     */
+    private static void drawImage(Bitmap bitmap, int index) {
+        final Canvas canvas = new Canvas(bitmap);
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+        final float hue = (index * 37) % 360;
+        paint.setShader(new LinearGradient(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT, Color.HSVToColor(
+                new float[] {
+                        hue, 0.8f, 0.9f
+                }), Color.HSVToColor(new float[] {
+                (hue + 180) % 360, 0.8f, 0.3f
+        }), Shader.TileMode.CLAMP));
+        canvas.drawRect(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT, paint);
+        paint.setShader(null);
+
+        paint.setColor(0x66FFFFFF);
+        for (int x = 0; x < IMAGE_WIDTH; x += 60) {
+            canvas.drawLine(x, 0, x, IMAGE_HEIGHT, paint);
+        }
+        for (int y = 0; y < IMAGE_HEIGHT; y += 60) {
+            canvas.drawLine(0, y, IMAGE_WIDTH, y, paint);
+        }
+
+        paint.setColor(Color.WHITE);
+        paint.setTextSize(IMAGE_HEIGHT / 3);
+        paint.setTextAlign(Paint.Align.CENTER);
+        canvas.drawText(String.valueOf(index), IMAGE_WIDTH / 2, (IMAGE_HEIGHT * 2) / 3, paint);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void startScenario(File[] files) {
+        adapter = new StressPagerAdapter(imageLoader, files, metrics);
+        viewPager.setAdapter(adapter);
+
+        metrics.reset();
+        startGcCount = Debug.getGlobalGcInvocationCount();
+        Debug.startAllocCounting();
+        startTime = SystemClock.uptimeMillis();
+        isRunning = true;
+
+        if (VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN) {
+            startFrameTiming();
+        }
+
+        handler.postDelayed(stepRunnable, STEP_INTERVAL_MS);
+    }
+
+    /**
+     * Runs a gesture on the current page, then swipes once it is over and
+     * the animations it started have had time to run.
+     */
+    private final Runnable stepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!isRunning) {
+                return;
+            }
+
+            sampleMemory();
+
+            final ZoomImageView view = adapter.getView(viewPager.getCurrentItem());
+            long gestureEnd = SystemClock.uptimeMillis();
+
+            // Vary the gestures, each one followed by a swipe
+            if (view != null) {
+                switch (step % 4) {
+                    case 0:
+                        if (gestures != null) {
+                            gestureEnd = replayGestures(view);
+                        }
+                        break;
+                    case 1:
+                        gestureEnd = doubleTap(view.getWidth() / 2f, view.getHeight() / 2f);
+                        break;
+                    case 2:
+                        gestureEnd = drag(view.getWidth() * 0.7f, view.getHeight() * 0.6f,
+                                view.getWidth() * 0.2f, view.getHeight() * 0.4f);
+                        break;
+                    case 3:
+                        if (VERSION.SDK_INT >= VERSION_CODES.GINGERBREAD) {
+                            gestureEnd = pinch(view.getWidth() / 2f, view.getHeight() / 2f,
+                                    view.getWidth() / 8f, view.getWidth() / 3f);
+                        }
+                        break;
+                }
+            }
+
+            handler.postAtTime(swipeRunnable, gestureEnd + STEP_INTERVAL_MS);
+        }
+    };
+
+    private final Runnable swipeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!isRunning) {
+                return;
+            }
+
+            final int position = viewPager.getCurrentItem();
+            if (position + 1 < adapter.getCount()) {
+                viewPager.setCurrentItem(position + 1, true);
+                step++;
+                statusView.setText("Page " + (position + 1) + " / " + adapter.getCount());
+                handler.postDelayed(stepRunnable, STEP_INTERVAL_MS);
+            } else {
+                finishScenario();
+            }
+        }
+    };
+
+    /**
+     * Dispatches the pending events which are due, through the pager so its
+     * touch interception is part of the test.
+     */
+    private final Runnable eventRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final long now = SystemClock.uptimeMillis();
+            while (!pendingEvents.isEmpty() && (pendingEvents.get(0).getEventTime() <= now)) {
+                final MotionEvent event = pendingEvents.remove(0);
+                viewPager.dispatchTouchEvent(event);
+                event.recycle();
+            }
+
+            if (!pendingEvents.isEmpty()) {
+                handler.postAtTime(this, pendingEvents.get(0).getEventTime());
+            }
+        }
+    };
+
+    private void sampleMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        peakJavaHeap = Math.max(peakJavaHeap, runtime.totalMemory() - runtime.freeMemory());
+        peakNativeHeap = Math.max(peakNativeHeap, Debug.getNativeHeapAllocatedSize());
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void startFrameTiming() {
+        Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                if (!isRunning) {
+                    return;
+                }
+
+                if ((lastFrameNanos != 0) && (frameCount < MAX_FRAMES)) {
+                    frameNanos[frameCount++] = frameTimeNanos - lastFrameNanos;
+                }
+                lastFrameNanos = frameTimeNanos;
+                sampleMemory();
+
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        });
+    }
+
+    /**
+     * @return The time of the last event.
+     */
+    private long doubleTap(float x, float y) {
+        final long time = SystemClock.uptimeMillis();
+        dispatch(MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, x, y, 0));
+        dispatch(MotionEvent.obtain(time, time + 50, MotionEvent.ACTION_UP, x, y, 0));
+        dispatch(MotionEvent.obtain(time + 100, time + 100, MotionEvent.ACTION_DOWN, x, y, 0));
+        dispatch(MotionEvent.obtain(time + 100, time + 150, MotionEvent.ACTION_UP, x, y, 0));
+        return time + 150;
+    }
+
+    /**
+     * A quick drag, fast enough to end in a fling.
+     *
+     * @return The time of the last event.
+     */
+    private long drag(float fromX, float fromY, float toX, float toY) {
+        final int moves = 8;
+        final long downTime = SystemClock.uptimeMillis();
+        long time = downTime;
+
+        dispatch(MotionEvent.obtain(downTime, time, MotionEvent.ACTION_DOWN, fromX, fromY, 0));
+        for (int i = 1; i <= moves; i++) {
+            time += GESTURE_EVENT_INTERVAL_MS;
+            final float x = fromX + (((toX - fromX) * i) / moves);
+            final float y = fromY + (((toY - fromY) * i) / moves);
+            dispatch(MotionEvent.obtain(downTime, time, MotionEvent.ACTION_MOVE, x, y, 0));
+        }
+        dispatch(MotionEvent.obtain(downTime, time, MotionEvent.ACTION_UP, toX, toY, 0));
+        return time;
+    }
+
+    /**
+     * Two fingers moving apart horizontally around the center.
+     *
+     * @return The time of the last event.
+     */
+    @SuppressWarnings("deprecation")
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    private long pinch(float centerX, float centerY, float fromSpan, float toSpan) {
+        final int moves = 10;
+        final long downTime = SystemClock.uptimeMillis();
+        long time = downTime;
+
+        final int[] ids = {
+                0, 1
+        };
+        final PointerCoords[] coords = {
+                new PointerCoords(), new PointerCoords()
+        };
+        coords[0].pressure = coords[1].pressure = 1f;
+        coords[0].size = coords[1].size = 1f;
+        coords[0].y = coords[1].y = centerY;
+
+        coords[0].x = centerX - fromSpan;
+        dispatch(MotionEvent.obtain(downTime, time, MotionEvent.ACTION_DOWN, 1, ids, coords, 0,
+                1f, 1f, 0, 0, 0, 0));
+
+        coords[1].x = centerX + fromSpan;
+        dispatch(MotionEvent.obtain(downTime, time, MotionEvent.ACTION_POINTER_DOWN
+                | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 2, ids, coords, 0, 1f, 1f, 0, 0,
+                0, 0));
+
+        for (int i = 1; i <= moves; i++) {
+            time += GESTURE_EVENT_INTERVAL_MS;
+            final float span = fromSpan + (((toSpan - fromSpan) * i) / moves);
+            coords[0].x = centerX - span;
+            coords[1].x = centerX + span;
+            dispatch(MotionEvent.obtain(downTime, time, MotionEvent.ACTION_MOVE, 2, ids, coords,
+                    0, 1f, 1f, 0, 0, 0, 0));
+        }
+
+        dispatch(MotionEvent.obtain(downTime, time, MotionEvent.ACTION_POINTER_UP
+                | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 2, ids, coords, 0, 1f, 1f, 0, 0,
+                0, 0));
+        dispatch(MotionEvent.obtain(downTime, time, MotionEvent.ACTION_UP, 1, ids, coords, 0, 1f,
+                1f, 0, 0, 0, 0));
+        return time;
+    }
+
+    /**
+     * Replays the recorded gestures through the whole window at their
+     * recorded pace, the same way on every run.
+     *
+     * @return When the last event will be dispatched.
+     */
+    private long replayGestures(ZoomImageView view) {
+        final long startTime = SystemClock.uptimeMillis();
+        gestures.replay(getWindow().getDecorView(), view, handler,
+                new GestureRecorder.OnReplayedListener() {
+                    @Override
+                    public void onReplayed(GestureRecorder.Report report) {
+                        replayCpuNanos += report.getTotalCpuNanos();
+                        replayAllocations += report.getTotalAllocations();
+                    }
+                });
+        return startTime + gestures.getDurationMillis();
+    }
+
+    /**
+     * Queues the event to be dispatched at its event time, so the events of
+     * a gesture are spread over frames as real touches are.
+     */
+    private void dispatch(MotionEvent event) {
+        pendingEvents.add(event);
+        if (pendingEvents.size() == 1) {
+            handler.postAtTime(eventRunnable, event.getEventTime());
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void finishScenario() {
+        isRunning = false;
+        sampleMemory();
+
+        final long duration = SystemClock.uptimeMillis() - startTime;
+        final int gcCount = Debug.getGlobalGcInvocationCount() - startGcCount;
+        Debug.stopAllocCounting();
+
+        final ZoomImageMetrics snapshot = new ZoomImageMetrics();
+        metrics.copyTo(snapshot);
+
+        final StringBuilder report = new StringBuilder();
+        report.append("images: ").append(adapter.getCount()).append('\n');
+        report.append("duration ms: ").append(duration).append('\n');
+        report.append("peak java heap KB: ").append(peakJavaHeap / 1024).append('\n');
+        report.append("peak native heap KB: ").append(peakNativeHeap / 1024).append('\n');
+        report.append("gc count: ").append(gcCount).append('\n');
+        report.append("decodes: ").append(snapshot.getDecodeCount()).append('\n');
+        report.append("decoded KB: ").append(snapshot.getDecodedBytes() / 1024).append('\n');
+        report.append("decode p50/p95 us: ")
+                .append(snapshot.getDecodeTime().getPercentileMicros(50)).append(" / ")
+                .append(snapshot.getDecodeTime().getPercentileMicros(95)).append('\n');
+        report.append("cache hits/misses: ").append(snapshot.getCacheHits()).append(" / ")
+                .append(snapshot.getCacheMisses()).append('\n');
+        report.append("animation frames/dropped: ").append(snapshot.getAnimationFrames())
+                .append(" / ").append(snapshot.getDroppedAnimationFrames()).append('\n');
+
+        if (gestures != null) {
+            report.append("gesture replay cpu us/allocations: ")
+                    .append(replayCpuNanos / 1000).append(" / ").append(replayAllocations)
+                    .append('\n');
+        }
+
+        if (frameCount > 0) {
+            final long[] sorted = new long[frameCount];
+            System.arraycopy(frameNanos, 0, sorted, 0, frameCount);
+            Arrays.sort(sorted);
+            report.append("frames: ").append(frameCount).append('\n');
+            report.append("frame p50/p90/p99/max ms: ").append(percentileMillis(sorted, 50))
+                    .append(" / ").append(percentileMillis(sorted, 90)).append(" / ")
+                    .append(percentileMillis(sorted, 99)).append(" / ")
+                    .append(sorted[sorted.length - 1] / 1000000f).append('\n');
+        } else {
+            report.append("frames: not measured, needs API 16\n");
+        }
+
+        final String text = report.toString();
+        Log.i(LOG_TAG, text);
+        statusView.setText(text);
+
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+        try {
+            final FileWriter writer = new FileWriter(new File(directory, "stress_report.txt"));
+            try {
+                writer.write(text);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to write the report", e);
+        }
+    }
+
+    private static float percentileMillis(long[] sorted, int percentile) {
+        final int index = Math.min(sorted.length - 1, (sorted.length * percentile) / 100);
+        return sorted[index] / 1000000f;
+    }
+}
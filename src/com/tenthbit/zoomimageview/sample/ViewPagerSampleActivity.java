@@ -20,38 +20,48 @@ package com.tenthbit.zoomimageview.sample;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
+import android.content.res.Resources;
 import android.graphics.drawable.ColorDrawable;
 import android.os.Build;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.support.v4.view.PagerAdapter;
+import android.os.Parcelable;
 import android.support.v4.view.ViewPager;
+import android.util.SparseArray;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.ViewGroup.LayoutParams;
 import android.view.Window;
 import android.view.WindowManager;
-import android.widget.ImageView;
 
+import com.tenthbit.view.ImageSource;
+import com.tenthbit.view.ThumbnailCache;
+import com.tenthbit.view.ZoomFilmstripView;
+import com.tenthbit.view.ZoomImageLoader;
 import com.tenthbit.view.ZoomImageView;
+import com.tenthbit.view.ZoomPagerAdapter;
 import com.tenthbit.zoomimageview.R;
 
 public class ViewPagerSampleActivity extends Activity {
 
-    private static class SamplePagerAdapter extends PagerAdapter {
-        private Handler backgroundHandler;
+    private static final String PAGE_STATE_KEY = "page:";
+    private static final int THUMBNAIL_SIZE_DIP = 64;
+    private static final int MAX_THUMBNAILS = 100;
 
-        public SamplePagerAdapter() {
-            // Create a background thread and a handler for it
-            final HandlerThread backgroundThread = new HandlerThread("backgroundThread");
-            backgroundThread.start();
-            backgroundHandler = new Handler(backgroundThread.getLooper());
+    private ZoomImageLoader imageLoader;
+    private boolean isImageLoaderRetained;
+
+    private static class SamplePagerAdapter extends ZoomPagerAdapter {
+        private final ZoomImageLoader imageLoader;
+
+        // Zoom state of the pages shown, and of the pages waiting to be shown
+        // after a configuration change
+        private final SparseArray<ZoomImageView> activeViews = new SparseArray<ZoomImageView>();
+        private final SparseArray<SparseArray<Parcelable>> pageStates =
+                new SparseArray<SparseArray<Parcelable>>();
+
+        public SamplePagerAdapter(ZoomImageLoader imageLoader) {
+            this.imageLoader = imageLoader;
         }
 
         private static int[] drawables = {
@@ -66,54 +76,87 @@ public class ViewPagerSampleActivity extends Activity {
         }
 
         @Override
-        public View instantiateItem(ViewGroup container, int position) {
-            final ZoomImageView zoomImageView = new ZoomImageView(container.getContext());
+        protected void onBindView(ZoomImageView zoomImageView, int position) {
+            final Resources resources = zoomImageView.getResources();
+
+            final SparseArray<Parcelable> pageState = pageStates.get(position);
+            if (pageState != null) {
+                restorePageState(zoomImageView, pageState);
+                pageStates.remove(position);
+            }
+            activeViews.put(position, zoomImageView);
 
             /*
-             * Load the new bitmap in the background thread
+             * Load the new bitmap in the background thread, and read the
+             * following page ahead so swiping to it doesn't wait for I/O
              */
-            final int bitmapResource = drawables[position];
-            backgroundHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    // Load the bitmap here. You should control the bitmap size
-                    // using the BitmapFactory.Options.
-                    final Bitmap bitmap = BitmapFactory.decodeResource(
-                            zoomImageView.getResources(), bitmapResource);
-
-                    // Show the bitmap
-                    zoomImageView.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            zoomImageView.setImageBitmap(bitmap);
-                        }
-                    });
-                }
-            });
-
-            container.addView(zoomImageView, LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+            imageLoader.load(zoomImageView,
+                    ImageSource.fromResource(resources, drawables[position]));
+            if (position + 1 < drawables.length) {
+                imageLoader.prefetch(ImageSource.fromResource(resources, drawables[position + 1]));
+            }
+        }
 
-            return zoomImageView;
+        @Override
+        protected void onUnbindView(ZoomImageView zoomImageView, int position) {
+            // The bitmap may be shared with other views, the loader owns it
+            imageLoader.cancel(zoomImageView);
+            activeViews.remove(position);
         }
 
         @Override
-        public void destroyItem(ViewGroup container, int position, Object object) {
-            container.removeView((View) object);
+        public void setPrimaryItem(ViewGroup container, int position, Object object) {
+            super.setPrimaryItem(container, position, object);
 
-            /*
-             * Recycle the old bitmap to free up memory straight away
-             */
-            try {
-                final ImageView imageView = (ImageView) object;
-                final Bitmap bitmap = ((BitmapDrawable) imageView.getDrawable()).getBitmap();
-                imageView.setImageBitmap(null);
-                bitmap.recycle();
-            } catch (Exception e) {}
+            // Decode the page being looked at before the neighbours
+            imageLoader.prioritize((ZoomImageView) object);
+        }
+
+        @Override
+        public Parcelable saveState() {
+            final Bundle state = new Bundle();
+            for (int i = 0; i < activeViews.size(); i++) {
+                final SparseArray<Parcelable> pageState = new SparseArray<Parcelable>();
+                savePageState(activeViews.valueAt(i), pageState);
+                state.putSparseParcelableArray(PAGE_STATE_KEY + activeViews.keyAt(i), pageState);
+            }
+            return state;
         }
 
         @Override
-        public boolean isViewFromObject(View view, Object object) {
-            return view == object;
+        public void restoreState(Parcelable state, ClassLoader loader) {
+            if (!(state instanceof Bundle)) {
+                return;
+            }
+
+            final Bundle bundle = (Bundle) state;
+            bundle.setClassLoader(loader);
+            for (String key : bundle.keySet()) {
+                if (key.startsWith(PAGE_STATE_KEY)) {
+                    final int position = Integer.parseInt(key.substring(PAGE_STATE_KEY.length()));
+                    final SparseArray<Parcelable> pageState = bundle.getSparseParcelableArray(key);
+                    pageStates.put(position, pageState);
+                }
+            }
+        }
+
+        /*
+         * A view only saves and restores its state while it has an id. The
+         * pages get one just for that, so the activity doesn't save them
+         * all under the same id, where they would overwrite each other.
+         */
+        private static void savePageState(ZoomImageView zoomImageView,
+                SparseArray<Parcelable> pageState) {
+            zoomImageView.setId(R.id.zoomImageView);
+            zoomImageView.saveHierarchyState(pageState);
+            zoomImageView.setId(View.NO_ID);
+        }
+
+        private static void restorePageState(ZoomImageView zoomImageView,
+                SparseArray<Parcelable> pageState) {
+            zoomImageView.setId(R.id.zoomImageView);
+            zoomImageView.restoreHierarchyState(pageState);
+            zoomImageView.setId(View.NO_ID);
         }
     }
 
@@ -136,10 +179,67 @@ public class ViewPagerSampleActivity extends Activity {
 
         setContentView(R.layout.view_pager);
 
-        ViewPager viewPager = (ViewPager) findViewById(R.id.zoomViewPager);
-        viewPager.setAdapter(new SamplePagerAdapter());
+        // Take over the loader, and the images it kept, from the instance
+        // destroyed by a configuration change
+        imageLoader = (ZoomImageLoader) getLastNonConfigurationInstance();
+        if (imageLoader == null) {
+            imageLoader = new ZoomImageLoader(this);
+            // The thumbnails of the filmstrip, made by the loader
+            final int thumbnailSize = (int) (getResources().getDisplayMetrics().density
+                    * THUMBNAIL_SIZE_DIP);
+            imageLoader.setThumbnailCache(new ThumbnailCache(thumbnailSize, MAX_THUMBNAILS));
+        }
+
+        final ViewPager viewPager = (ViewPager) findViewById(R.id.zoomViewPager);
+        final SamplePagerAdapter pagerAdapter = new SamplePagerAdapter(imageLoader);
+        viewPager.setAdapter(pagerAdapter);
 
         // Add margin between pages (optional)
         viewPager.setPageMargin((int) getResources().getDisplayMetrics().density * 10);
+
+        // Keep the filmstrip and the pager in sync
+        final ZoomFilmstripView filmstrip = (ZoomFilmstripView) findViewById(R.id.filmstrip);
+        filmstrip.setImageLoader(imageLoader);
+        filmstrip.setAdapter(new ZoomFilmstripView.Adapter() {
+            @Override
+            public int getCount() {
+                return pagerAdapter.getCount();
+            }
+
+            @Override
+            public ImageSource getSource(int position) {
+                return ImageSource.fromResource(getResources(),
+                        SamplePagerAdapter.drawables[position]);
+            }
+        });
+        filmstrip.setOnItemClickListener(new ZoomFilmstripView.OnItemClickListener() {
+            @Override
+            public void onItemClick(ZoomFilmstripView view, int position) {
+                viewPager.setCurrentItem(position);
+            }
+        });
+        viewPager.setOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+            @Override
+            public void onPageSelected(int position) {
+                filmstrip.setSelection(position);
+            }
+        });
+        filmstrip.setSelection(viewPager.getCurrentItem());
+    }
+
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        imageLoader.retainImages();
+        isImageLoaderRetained = true;
+        return imageLoader;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (!isImageLoaderRetained) {
+            imageLoader.quit();
+        }
     }
 }
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of reading streams into the cache, with and without a known length.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class EncodedImageCacheTest extends TestCase {
+
+    private static final int MAX_BYTES = 64 * 1024;
+
+    private EncodedImageCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new EncodedImageCache(MAX_BYTES);
+    }
+
+    public void testReadsAStreamOfKnownLengthIntoADirectBuffer() throws IOException {
+        final byte[] bytes = bytes(40 * 1024);
+        final ByteBuffer data = cache.put("known", new ByteArrayInputStream(bytes));
+
+        assertContent(bytes, data);
+        assertTrue(data.isDirect());
+        assertEquals(bytes.length, cache.size());
+    }
+
+    public void testReadsAStreamLongerThanItsAvailableBytes() throws IOException {
+        final byte[] bytes = bytes(40 * 1024);
+        final ByteBuffer data = cache.put("estimated", new UnderestimatingStream(bytes, 1024));
+
+        assertContent(bytes, data);
+        assertEquals(bytes.length, cache.size());
+    }
+
+    public void testReadsAStreamOfUnknownLength() throws IOException {
+        final byte[] bytes = bytes(40 * 1024);
+        final ByteBuffer data = cache.put("unknown", new UnderestimatingStream(bytes, 0));
+
+        assertContent(bytes, data);
+        assertTrue(data.isDirect());
+        assertEquals(bytes.length, cache.size());
+    }
+
+    public void testDoesNotStoreImagesLargerThanTheCache() throws IOException {
+        final byte[] bytes = bytes(MAX_BYTES + 1);
+
+        assertContent(bytes, cache.put("known", new ByteArrayInputStream(bytes)));
+        assertContent(bytes, cache.put("unknown", new UnderestimatingStream(bytes, 0)));
+        assertFalse(cache.contains("known"));
+        assertFalse(cache.contains("unknown"));
+        assertEquals(0, cache.size());
+    }
+
+    private static byte[] bytes(int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        return bytes;
+    }
+
+    private static void assertContent(byte[] expected, ByteBuffer data) {
+        assertEquals(expected.length, data.remaining());
+        final byte[] actual = new byte[data.remaining()];
+        data.get(actual);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("at " + i, expected[i], actual[i]);
+        }
+    }
+
+    /**
+     * A network like stream, which reports less than it will return.
+     */
+    private static class UnderestimatingStream extends InputStream {
+        private final ByteArrayInputStream in;
+        private final int available;
+
+        public UnderestimatingStream(byte[] bytes, int available) {
+            this.in = new ByteArrayInputStream(bytes);
+            this.available = available;
+        }
+
+        @Override
+        public int read() {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            return in.read(buffer, offset, length);
+        }
+
+        @Override
+        public int available() {
+            return Math.min(available, in.available());
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Build;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.test.InstrumentationTestCase;
+import android.util.DisplayMetrics;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.MotionEvent.PointerCoords;
+import android.view.View;
+import android.view.View.MeasureSpec;
+
+import com.tenthbit.zoomimageview.sample.GestureRecorder;
+
+/**
+ * Replays recorded pinches, double taps, drags and flings under a
+ * {@link SimulatedClock}, and checks where they leave the image. The
+ * recordings are scripted, then written and read back as recording files
+ * are, and the animations they start run frame by frame on the simulated
+ * clock, so the results don't depend on the device's load.
+ *
+ * The view fills the screen and gestures are sized in millimeters, as the
+ * platform scale detector ignores pinches narrower than about 27 mm.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class GestureReplayTest extends InstrumentationTestCase {
+
+    private static final int MAX_FRAMES = 300;
+    // The duration of the zoom animations of the view
+    private static final long ZOOM_DURATION = 200;
+    private static final float TOLERANCE = 1.5f;
+
+    private Context context;
+    private SimulatedClock clock;
+    private int width;
+    private int height;
+    private float pixelsPerMillimeter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = getInstrumentation().getTargetContext();
+        clock = new SimulatedClock();
+
+        final DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        width = metrics.widthPixels;
+        height = metrics.heightPixels;
+        pixelsPerMillimeter = metrics.xdpi / 25.4f;
+    }
+
+    public void testPinchZoomsInAroundTheFocus() throws Throwable {
+        if (VERSION.SDK_INT < VERSION_CODES.GINGERBREAD) {
+            // Multi-touch events can't be created
+            return;
+        }
+        final GestureRecorder pinch = pinch();
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final ZoomImageView view = createView();
+                layout(view);
+
+                pinch.replay(view, view);
+                assertTrue(clock.runUntilIdle(MAX_FRAMES));
+
+                final float scale = view.getScale();
+                assertTrue("Scale " + scale, (scale > 1.3f) && (scale <= 2.01f));
+                assertCentered(view.getDisplayRect());
+            }
+        });
+    }
+
+    public void testDoubleTapZoomsToTheMidScale() throws Throwable {
+        final GestureRecorder doubleTap = new Script().tap(width / 2, height / 2).pause(100)
+                .tap(width / 2, height / 2).build(clock);
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final ZoomImageView view = createView();
+                layout(view);
+
+                doubleTap.replay(view, view);
+                final int startFrame = clock.getFrameCount();
+                assertTrue(clock.runUntilIdle(MAX_FRAMES));
+
+                // The zoom animation takes the same number of frames every time
+                final int frames = clock.getFrameCount() - startFrame;
+                assertTrue("Frames " + frames,
+                        frames <= ((ZOOM_DURATION / SimulatedClock.FRAME_MS) + 2));
+                assertEquals(ZoomImageView.DEFAULT_MID_SCALE, view.getScale(), 0.001f);
+                assertCentered(view.getDisplayRect());
+            }
+        });
+    }
+
+    public void testDragMovesTheImageByTheDistance() throws Throwable {
+        final float distance = width / 4;
+        final Script script = new Script().down(width / 2, height / 2);
+        for (int i = 1; i <= 10; i++) {
+            script.move((width / 2) + ((distance * i) / 10), height / 2);
+        }
+        // Stop before lifting the finger, so there is no fling
+        final GestureRecorder drag = script.pause(300).move((width / 2) + distance, height / 2)
+                .up((width / 2) + distance, height / 2).build(clock);
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final ZoomImageView view = createView();
+                layout(view);
+                view.zoomTo(2f, width / 2, height / 2, false);
+                final RectF start = view.getDisplayRect();
+
+                final GestureRecorder.Report report = drag.replay(view, view);
+                assertTrue(clock.runUntilIdle(MAX_FRAMES));
+
+                assertEquals(2f, report.getFinalScale(), 0.001f);
+                assertEquals(start.left + distance, report.getFinalDisplayRect().left, TOLERANCE);
+                assertEquals(start.left + distance, view.getDisplayRect().left, TOLERANCE);
+                assertEquals(start.top, view.getDisplayRect().top, TOLERANCE);
+            }
+        });
+    }
+
+    public void testFlingStopsAtTheEdge() throws Throwable {
+        final float distance = width / 4;
+        final Script script = new Script().down(width / 2, height / 2);
+        for (int i = 1; i <= 5; i++) {
+            script.move((width / 2) - ((distance * i) / 5), height / 2);
+        }
+        final GestureRecorder fling = script.up((width / 2) - distance, height / 2).build(clock);
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final ZoomImageView view = createView();
+                layout(view);
+                view.zoomTo(2f, width / 2, height / 2, false);
+                final RectF start = view.getDisplayRect();
+
+                final GestureRecorder.Report report = fling.replay(view, view);
+                // The fling has only started
+                assertEquals(start.left - distance, report.getFinalDisplayRect().left, TOLERANCE);
+                assertTrue(clock.runUntilIdle(MAX_FRAMES));
+
+                final RectF end = view.getDisplayRect();
+                assertEquals(2f, view.getScale(), 0.001f);
+                assertEquals(width, end.right, TOLERANCE);
+                assertEquals(start.top, end.top, TOLERANCE);
+            }
+        });
+    }
+
+    public void testPinchInPagerZoomsWithoutPaging() throws Throwable {
+        if (VERSION.SDK_INT < VERSION_CODES.GINGERBREAD) {
+            return;
+        }
+        final GestureRecorder pinch = pinch();
+        final ZoomImageView[] pages = new ZoomImageView[3];
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final ZoomViewPager pager = new ZoomViewPager(context);
+                pager.setAdapter(new ZoomPagerAdapter() {
+                    @Override
+                    public int getCount() {
+                        return pages.length;
+                    }
+
+                    @Override
+                    protected ZoomImageView onCreateView(Context context) {
+                        return createView();
+                    }
+
+                    @Override
+                    protected void onBindView(ZoomImageView view, int position) {
+                        pages[position] = view;
+                    }
+                });
+                pager.setCurrentItem(1, false);
+                layout(pager);
+                final int scrollX = pager.getScrollX();
+
+                pinch.replay(pager, pages[1]);
+                assertTrue(clock.runUntilIdle(MAX_FRAMES));
+
+                assertEquals(1, pager.getCurrentItem());
+                assertEquals(scrollX, pager.getScrollX());
+                final float scale = pages[1].getScale();
+                assertTrue("Scale " + scale, (scale > 1.3f) && (scale <= 2.01f));
+                assertCentered(pages[1].getDisplayRect());
+            }
+        });
+    }
+
+    /**
+     * Spreads two fingers from 30 to 60 mm apart, around the center, along
+     * the longer side of the screen.
+     */
+    private GestureRecorder pinch() throws IOException {
+        final boolean isVertical = height >= width;
+        final float maxSpan = 0.9f * Math.max(width, height);
+        final float startSpan = Math.min(30 * pixelsPerMillimeter, maxSpan / 2);
+        final float endSpan = 2 * startSpan;
+        final float centerX = width / 2, centerY = height / 2;
+
+        final Script script = new Script();
+        float span = startSpan;
+        for (int i = 0; i <= 20; i++) {
+            final float offset = span / 2;
+            final float x0 = isVertical ? centerX : (centerX - offset);
+            final float y0 = isVertical ? (centerY - offset) : centerY;
+            final float x1 = isVertical ? centerX : (centerX + offset);
+            final float y1 = isVertical ? (centerY + offset) : centerY;
+            if (i == 0) {
+                script.down(x0, y0).pointerDown(x0, y0, x1, y1);
+            } else if (i < 20) {
+                script.move(x0, y0, x1, y1);
+            } else {
+                script.move(x0, y0, x1, y1).pointerUp(x0, y0, x1, y1).up(x0, y0);
+            }
+            span += (endSpan - startSpan) / 20;
+        }
+        return script.build(clock);
+    }
+
+    private ZoomImageView createView() {
+        final ZoomImageView view = new ZoomImageView(context);
+        view.setAnimationClock(clock);
+        view.setImageDrawable(new BitmapDrawable(context.getResources(), Bitmap.createBitmap(400,
+                200, Bitmap.Config.RGB_565)));
+        return view;
+    }
+
+    private void layout(View view) {
+        view.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+        view.layout(0, 0, width, height);
+    }
+
+    private void assertCentered(RectF rect) {
+        assertEquals(width / 2f, rect.centerX(), TOLERANCE);
+        assertEquals(height / 2f, rect.centerY(), TOLERANCE);
+    }
+
+    /**
+     * Builds a recording the way GestureRecorder records a window, one
+     * event per 16 ms frame.
+     */
+    private static class Script {
+        private static final long START_TIME = 1000;
+
+        private final GestureRecorder recorder = new GestureRecorder();
+        private long time = START_TIME;
+        private long downTime;
+
+        public Script() {
+            recorder.startRecording();
+        }
+
+        public Script down(float x, float y) {
+            downTime = time;
+            return add(MotionEvent.ACTION_DOWN, x, y);
+        }
+
+        public Script move(float x, float y) {
+            return add(MotionEvent.ACTION_MOVE, x, y);
+        }
+
+        public Script up(float x, float y) {
+            return add(MotionEvent.ACTION_UP, x, y);
+        }
+
+        public Script tap(float x, float y) {
+            return down(x, y).up(x, y);
+        }
+
+        public Script pointerDown(float x0, float y0, float x1, float y1) {
+            return add(MotionEvent.ACTION_POINTER_DOWN
+                    | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), x0, y0, x1, y1);
+        }
+
+        public Script move(float x0, float y0, float x1, float y1) {
+            return add(MotionEvent.ACTION_MOVE, x0, y0, x1, y1);
+        }
+
+        public Script pointerUp(float x0, float y0, float x1, float y1) {
+            return add(MotionEvent.ACTION_POINTER_UP
+                    | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), x0, y0, x1, y1);
+        }
+
+        public Script pause(long millis) {
+            time += millis;
+            return this;
+        }
+
+        /**
+         * @return A recorder with the recording written and read back, which
+         *         replays on the clock.
+         */
+        public GestureRecorder build(SimulatedClock clock) throws IOException {
+            recorder.stopRecording();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            recorder.writeTo(new DataOutputStream(bytes));
+
+            final GestureRecorder recording = new GestureRecorder();
+            recording.readFrom(new DataInputStream(new ByteArrayInputStream(bytes
+                    .toByteArray())));
+            recording.setClock(clock);
+            return recording;
+        }
+
+        private Script add(int action, float x, float y) {
+            final MotionEvent event = MotionEvent.obtain(downTime, time, action, x, y, 0);
+            recorder.record(event);
+            event.recycle();
+            time += SimulatedClock.FRAME_MS;
+            return this;
+        }
+
+        @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+        @SuppressWarnings("deprecation")
+        private Script add(int action, float x0, float y0, float x1, float y1) {
+            final PointerCoords[] coords = {
+                    new PointerCoords(), new PointerCoords()
+            };
+            coords[0].x = x0;
+            coords[0].y = y0;
+            coords[1].x = x1;
+            coords[1].y = y1;
+            for (PointerCoords pointer : coords) {
+                pointer.pressure = 1f;
+                pointer.size = 1f;
+            }
+
+            final MotionEvent event = MotionEvent.obtain(downTime, time, action, 2, new int[] {
+                    0, 1
+            }, coords, 0, 1f, 1f, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
+            recorder.record(event);
+            event.recycle();
+            time += SimulatedClock.FRAME_MS;
+            return this;
+        }
+    }
+}
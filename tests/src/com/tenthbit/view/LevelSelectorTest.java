@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the level selection, including scripted pinch traces which count
+ * the level changes, i.e. the decodes, a pinch would cause.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class LevelSelectorTest extends TestCase {
+
+    private static final long FRAME_MS = 16;
+
+    private LevelSelector selector;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        selector = new LevelSelector();
+        selector.reset(2, 1, 8);
+    }
+
+    public void testStaysWithinTheFinerBand() {
+        // The plain boundary is at 0.5, finer only past 0.5 * 1.25
+        assertEquals(2, selector.select(0.6f, 0));
+        assertEquals(2, selector.select(0.6f, 1000));
+        assertFalse(selector.isSettling());
+    }
+
+    public void testGoesFinerPastTheBandAfterTheSettleDelay() {
+        assertEquals(2, selector.select(0.7f, 0));
+        assertTrue(selector.isSettling());
+        assertEquals(LevelSelector.DEFAULT_SETTLE_DELAY_MS, selector.getSettleTime());
+
+        assertEquals(2, selector.select(0.7f, LevelSelector.DEFAULT_SETTLE_DELAY_MS - 1));
+        assertEquals(1, selector.select(0.7f, LevelSelector.DEFAULT_SETTLE_DELAY_MS));
+        assertFalse(selector.isSettling());
+    }
+
+    public void testStaysWithinTheCoarserBand() {
+        // The plain boundary is at 0.25, coarser only below 0.25 / 1.25
+        assertEquals(2, selector.select(0.21f, 0));
+        assertEquals(2, selector.select(0.21f, 1000));
+        assertFalse(selector.isSettling());
+    }
+
+    public void testGoesCoarserPastTheBandAfterTheSettleDelay() {
+        assertEquals(2, selector.select(0.19f, 0));
+        assertTrue(selector.isSettling());
+        assertEquals(2, selector.select(0.19f, LevelSelector.DEFAULT_SETTLE_DELAY_MS - 1));
+        assertEquals(4, selector.select(0.19f, LevelSelector.DEFAULT_SETTLE_DELAY_MS));
+    }
+
+    public void testFurtherLevelsDontRestartTheDelay() {
+        assertEquals(2, selector.select(0.19f, 0));
+        assertEquals(2, selector.select(0.05f, 100));
+        assertEquals(8, selector.select(0.05f, LevelSelector.DEFAULT_SETTLE_DELAY_MS));
+    }
+
+    public void testTurningAroundRestartsTheDelay() {
+        assertEquals(2, selector.select(0.7f, 0));
+        assertEquals(2, selector.select(0.15f, 100));
+        assertEquals(2, selector.select(0.15f, LevelSelector.DEFAULT_SETTLE_DELAY_MS));
+        assertEquals(4, selector.select(0.15f, 100 + LevelSelector.DEFAULT_SETTLE_DELAY_MS));
+    }
+
+    public void testComingBackCancelsThePendingLevel() {
+        assertEquals(2, selector.select(0.7f, 0));
+        assertEquals(2, selector.select(0.5f, 100));
+        assertFalse(selector.isSettling());
+        assertEquals(2, selector.select(0.7f, 200));
+        assertEquals(2, selector.select(0.7f, 300));
+    }
+
+    public void testStaysWithinTheLevelBounds() {
+        selector.reset(2, 2, 4);
+        assertEquals(2, selector.select(100f, 0));
+        assertEquals(2, selector.select(100f, 1000));
+        assertFalse(selector.isSettling());
+
+        assertEquals(2, selector.select(0.001f, 2000));
+        assertEquals(4, selector.select(0.001f, 3000));
+        assertEquals(4, selector.select(0.001f, 4000));
+        assertFalse(selector.isSettling());
+    }
+
+    public void testResetAndSetLevelClampToTheBounds() {
+        selector.reset(16, 1, 8);
+        assertEquals(8, selector.getLevel());
+        selector.reset(1, 2, 8);
+        assertEquals(2, selector.getLevel());
+        // The coarsest level is never finer than the finest one
+        selector.reset(4, 4, 2);
+        assertEquals(4, selector.getLevel());
+
+        selector.reset(2, 2, 8);
+        selector.setLevel(1);
+        assertEquals(2, selector.getLevel());
+        selector.setLevel(32);
+        assertEquals(8, selector.getLevel());
+    }
+
+    public void testSetLevelDropsThePendingLevel() {
+        selector.select(0.7f, 0);
+        selector.setLevel(4);
+        assertFalse(selector.isSettling());
+        assertEquals(4, selector.getLevel());
+    }
+
+    public void testRejectsNegativeHysteresis() {
+        try {
+            new LevelSelector(-0.1f, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * A pinch wobbling 20% around the boundary between sample sizes 1 and
+     * 2, as fingers do while holding a zoom. Without hysteresis every frame
+     * across the boundary decodes again.
+     */
+    public void testWobblingPinchAroundABoundaryDoesntChangeTheLevel() {
+        final LevelSelector thrashing = new LevelSelector(0, 0);
+        thrashing.reset(1, 1, 8);
+        selector.reset(1, 1, 8);
+
+        final int thrashingChanges = countLevelChanges(thrashing, wobbleTrace(0.5f, 0.2f));
+        final int changes = countLevelChanges(selector, wobbleTrace(0.5f, 0.2f));
+
+        assertTrue("Without hysteresis " + thrashingChanges, thrashingChanges > 20);
+        assertEquals(0, changes);
+    }
+
+    /**
+     * A pinch wobbling past the hysteresis band, but never for as long as
+     * the settle delay.
+     */
+    public void testQuickWobblePastTheBandDoesntChangeTheLevel() {
+        selector.reset(1, 1, 8);
+        assertEquals(0, countLevelChanges(selector, wobbleTrace(0.5f, 0.4f)));
+    }
+
+    /**
+     * A steady pinch out from a tenth of the size to twice it, every level on
+     * the way is selected once.
+     */
+    public void testSteadyPinchChangesEachLevelOnce() {
+        selector.reset(8, 1, 8);
+
+        final int frames = 120;
+        final float[] trace = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            trace[i] = 0.1f * (float) Math.pow(20, i / (frames - 1f));
+        }
+
+        assertEquals(3, countLevelChanges(selector, trace));
+        // Settled once the pinch has stopped
+        assertEquals(1, selector.select(2f, (frames * FRAME_MS) + 1000));
+    }
+
+    /**
+     * @return The scales of a two second pinch, one per frame, moving around
+     *         the center with the given amplitude and a 4 frame period.
+     */
+    private static float[] wobbleTrace(float center, float amplitude) {
+        final int frames = 120;
+        final float[] trace = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            trace[i] = center * (1 + (amplitude * (float) Math.sin((Math.PI * i) / 2)));
+        }
+        return trace;
+    }
+
+    private static int countLevelChanges(LevelSelector selector, float[] trace) {
+        int changes = 0;
+        int level = selector.getLevel();
+        for (int i = 0; i < trace.length; i++) {
+            final int selected = selector.select(trace[i], i * FRAME_MS);
+            if (selected != level) {
+                changes++;
+                level = selected;
+            }
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import java.util.ArrayList;
+
+import android.os.SystemClock;
+import android.view.View;
+
+import com.tenthbit.zoomimageview.sample.GestureRecorder;
+
+/**
+ * A clock which only moves when told to, running the posted animation
+ * callbacks once per 16 ms frame. Set on the views and on the
+ * GestureRecorder, replays and the animations they start run the same way on
+ * every device, whatever the load.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+class SimulatedClock implements AnimationClock, GestureRecorder.Clock {
+
+    static final long FRAME_MS = 16;
+
+    private final ArrayList<Runnable> callbacks = new ArrayList<Runnable>();
+    private final ArrayList<Runnable> frame = new ArrayList<Runnable>();
+    private long now;
+    private long nextFrameTime;
+    private int frameCount;
+
+    /**
+     * Starts at the current uptime, so the event times look recent to the
+     * platform gesture detectors.
+     */
+    public SimulatedClock() {
+        now = SystemClock.uptimeMillis();
+        nextFrameTime = now + FRAME_MS;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return now;
+    }
+
+    @Override
+    public void postOnAnimation(View view, Runnable runnable) {
+        callbacks.add(runnable);
+    }
+
+    @Override
+    public void removeCallbacks(View view, Runnable runnable) {
+        while (callbacks.remove(runnable)) {
+            // Posted more than once
+        }
+    }
+
+    /**
+     * Runs the frames due until the time, then moves the clock to it.
+     */
+    @Override
+    public void waitUntil(long uptimeMillis) {
+        while (nextFrameTime <= uptimeMillis) {
+            runFrame();
+        }
+        now = Math.max(now, uptimeMillis);
+    }
+
+    /**
+     * Runs frames until no animation is left.
+     *
+     * @return false if animations were still running after the given number
+     *         of frames.
+     */
+    public boolean runUntilIdle(int maxFrames) {
+        for (int i = 0; (i < maxFrames) && !callbacks.isEmpty(); i++) {
+            runFrame();
+        }
+        return callbacks.isEmpty();
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    private void runFrame() {
+        now = nextFrameTime;
+        nextFrameTime += FRAME_MS;
+        frameCount++;
+
+        // Callbacks posted while running are for the next frame
+        frame.addAll(callbacks);
+        callbacks.clear();
+        for (int i = 0; i < frame.size(); i++) {
+            frame.get(i).run();
+        }
+        frame.clear();
+    }
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.View.MeasureSpec;
+
+/**
+ * Times the scale and display rect queries a frame makes, answered from the
+ * cached transform state, against recalculating them from the matrices on
+ * every query as the view used to.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class TransformStateTimingTest extends InstrumentationTestCase {
+
+    private static final String LOG_TAG = "TransformStateTiming";
+
+    private static final int WARM_UP_QUERIES = 10000;
+    private static final int QUERIES = 100000;
+
+    private final RectF rect = new RectF();
+    private final float[] values = new float[9];
+    private volatile float sink;
+    private long cachedNanos;
+    private long recalculatedNanos;
+
+    public void testCachedQueriesAreFasterThanRecalculating() throws Throwable {
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final ZoomImageView view = createView();
+
+                queryCached(view, WARM_UP_QUERIES);
+                queryRecalculated(view, WARM_UP_QUERIES);
+
+                long startNanos = System.nanoTime();
+                queryCached(view, QUERIES);
+                cachedNanos = System.nanoTime() - startNanos;
+
+                startNanos = System.nanoTime();
+                queryRecalculated(view, QUERIES);
+                recalculatedNanos = System.nanoTime() - startNanos;
+            }
+        });
+
+        Log.i(LOG_TAG, "Per query, cached: " + (cachedNanos / QUERIES) + " ns, recalculated: "
+                + (recalculatedNanos / QUERIES) + " ns");
+        assertTrue(cachedNanos < recalculatedNanos);
+    }
+
+    public void testDisplayRectIsACopy() throws Throwable {
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final ZoomImageView view = createView();
+                final RectF displayRect = view.getDisplayRect();
+                final RectF expected = new RectF(displayRect);
+
+                displayRect.offset(100, 100);
+                assertEquals(expected, view.getDisplayRect());
+            }
+        });
+    }
+
+    private ZoomImageView createView() {
+        final ZoomImageView view = new ZoomImageView(getInstrumentation().getTargetContext());
+        view.setImageDrawable(new BitmapDrawable(view.getResources(), Bitmap.createBitmap(400,
+                300, Bitmap.Config.RGB_565)));
+        view.measure(MeasureSpec.makeMeasureSpec(480, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(800, MeasureSpec.EXACTLY));
+        view.layout(0, 0, 480, 800);
+        view.zoomTo(2f, 240, 400, false);
+        return view;
+    }
+
+    private void queryCached(ZoomImageView view, int count) {
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += view.getScale();
+            sum += view.peekDisplayRect().width();
+        }
+        sink = sum;
+    }
+
+    /**
+     * What the queries used to cost: reading the zoom matrix for the scale,
+     * concatenating the matrices and mapping the image bounds for the rect.
+     */
+    private void queryRecalculated(ZoomImageView view, int count) {
+        final Drawable d = view.getDrawable();
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            final Matrix matrix = view.getDisplayMatrix();
+            matrix.getValues(values);
+            sum += values[Matrix.MSCALE_X];
+
+            rect.set(0, 0, d.getIntrinsicWidth(), d.getIntrinsicHeight());
+            matrix.mapRect(rect);
+            sum += rect.width();
+        }
+        sink = sum;
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.MotionEvent;
+
+/**
+ * Measures the construction time and retained heap of views which are never
+ * touched, against views which have been touched once and so hold the
+ * gesture detectors they used to create in their constructor.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class ZoomImageViewConstructionTest extends InstrumentationTestCase {
+
+    private static final String LOG_TAG = "ZoomImageViewConstruction";
+
+    private static final int VIEW_COUNT = 200;
+
+    public void testUntouchedViewsRetainLessThanTouchedOnes() throws Throwable {
+        final Context context = getInstrumentation().getTargetContext();
+        final Measurement untouched = new Measurement();
+        final Measurement touched = new Measurement();
+
+        // The gesture detectors need the Looper of the UI thread
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                // Load the classes first, so the first run doesn't pay for it
+                touch(new ZoomImageView(context));
+
+                measure(context, false, untouched);
+                measure(context, true, touched);
+            }
+        });
+
+        Log.i(LOG_TAG, "Untouched: " + untouched + ", touched: " + touched);
+        assertTrue("Untouched views retain " + untouched.retainedBytes
+                + " bytes each, touched ones " + touched.retainedBytes,
+                untouched.retainedBytes < touched.retainedBytes);
+    }
+
+    private static void measure(Context context, boolean touch, Measurement measurement) {
+        final ZoomImageView[] views = new ZoomImageView[VIEW_COUNT];
+
+        final long usedBefore = usedHeap();
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < VIEW_COUNT; i++) {
+            views[i] = new ZoomImageView(context);
+            if (touch) {
+                touch(views[i]);
+            }
+        }
+        measurement.nanos = (System.nanoTime() - startNanos) / VIEW_COUNT;
+        measurement.retainedBytes = (usedHeap() - usedBefore) / VIEW_COUNT;
+
+        // Keep the views reachable until the heap has been measured
+        assertEquals(VIEW_COUNT, views.length);
+    }
+
+    private static void touch(ZoomImageView view) {
+        final long now = SystemClock.uptimeMillis();
+        final MotionEvent down = MotionEvent.obtain(now, now, MotionEvent.ACTION_DOWN, 0, 0, 0);
+        final MotionEvent cancel = MotionEvent.obtain(now, now, MotionEvent.ACTION_CANCEL, 0, 0,
+                0);
+        view.dispatchTouchEvent(down);
+        view.dispatchTouchEvent(cancel);
+        down.recycle();
+        cancel.recycle();
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class Measurement {
+        long nanos;
+        long retainedBytes;
+
+        @Override
+        public String toString() {
+            return (nanos / 1000) + " us and " + retainedBytes + " bytes per view";
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup.LayoutParams;
+import android.widget.LinearLayout;
+import android.widget.ScrollView;
+
+/**
+ * Tests which parents a drag of a zoomed in landscape image is handed over
+ * to. The image doesn't fill the view vertically, so it is always at both its
+ * vertical edges.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class ZoomImageViewEdgeTest extends InstrumentationTestCase {
+
+    private static final int VIEW_WIDTH = 480;
+    private static final int VIEW_HEIGHT = 800;
+
+    private boolean isInterceptAllowed;
+
+    public void testPagerDoesNotTakeOverVerticalDrags() throws Throwable {
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final Context context = getInstrumentation().getTargetContext();
+                final ZoomViewPager pager = new ZoomViewPager(context) {
+                    @Override
+                    public void requestDisallowInterceptTouchEvent(boolean disallow) {
+                        isInterceptAllowed = !disallow;
+                        super.requestDisallowInterceptTouchEvent(disallow);
+                    }
+                };
+                final ZoomImageView view = createView(context);
+                pager.addView(view);
+                layout(view, VIEW_WIDTH, VIEW_HEIGHT);
+                view.zoomTo(2f, VIEW_WIDTH / 2, VIEW_HEIGHT / 2, false);
+
+                drag(view, 10, 160);
+                assertFalse(isInterceptAllowed);
+            }
+        });
+    }
+
+    public void testPagerTakesOverHorizontalDragsAtTheEdge() throws Throwable {
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final Context context = getInstrumentation().getTargetContext();
+                final ZoomViewPager pager = new ZoomViewPager(context) {
+                    @Override
+                    public void requestDisallowInterceptTouchEvent(boolean disallow) {
+                        isInterceptAllowed = !disallow;
+                        super.requestDisallowInterceptTouchEvent(disallow);
+                    }
+                };
+                final ZoomImageView view = createView(context);
+                pager.addView(view);
+                layout(view, VIEW_WIDTH, VIEW_HEIGHT);
+
+                // Not zoomed in, the image is at both horizontal edges
+                drag(view, 160, 10);
+                assertTrue(isInterceptAllowed);
+            }
+        });
+    }
+
+    public void testScrollViewTakesOverVerticalDrags() throws Throwable {
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final Context context = getInstrumentation().getTargetContext();
+                final ScrollView scrollView = new ScrollView(context) {
+                    @Override
+                    public void requestDisallowInterceptTouchEvent(boolean disallow) {
+                        isInterceptAllowed = !disallow;
+                        super.requestDisallowInterceptTouchEvent(disallow);
+                    }
+                };
+                final LinearLayout content = new LinearLayout(context);
+                content.setOrientation(LinearLayout.VERTICAL);
+                content.addView(new View(context), VIEW_WIDTH, VIEW_HEIGHT);
+                final ZoomImageView view = createView(context);
+                content.addView(view, VIEW_WIDTH, VIEW_HEIGHT);
+                content.addView(new View(context), VIEW_WIDTH, VIEW_HEIGHT);
+                scrollView.addView(content, LayoutParams.MATCH_PARENT,
+                        LayoutParams.WRAP_CONTENT);
+
+                layout(scrollView, VIEW_WIDTH, VIEW_HEIGHT);
+                scrollView.scrollTo(0, VIEW_HEIGHT);
+                view.zoomTo(2f, VIEW_WIDTH / 2, VIEW_HEIGHT / 2, false);
+
+                drag(view, 10, 160);
+                assertTrue(isInterceptAllowed);
+            }
+        });
+    }
+
+    private static ZoomImageView createView(Context context) {
+        final ZoomImageView view = new ZoomImageView(context);
+        view.setImageDrawable(new BitmapDrawable(context.getResources(), Bitmap.createBitmap(
+                800, 400, Bitmap.Config.RGB_565)));
+        return view;
+    }
+
+    private static void layout(View view, int width, int height) {
+        view.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+        view.layout(0, 0, width, height);
+    }
+
+    /**
+     * Drags in four steps, without lifting the finger, so the parent isn't
+     * told about the end of the gesture.
+     */
+    private static void drag(View view, float dx, float dy) {
+        final long downTime = SystemClock.uptimeMillis();
+        final float x = VIEW_WIDTH / 2, y = VIEW_HEIGHT / 2;
+        dispatch(view, downTime, downTime, MotionEvent.ACTION_DOWN, x, y);
+        for (int i = 1; i <= 4; i++) {
+            dispatch(view, downTime, downTime + (i * 16), MotionEvent.ACTION_MOVE,
+                    x + ((dx * i) / 4), y + ((dy * i) / 4));
+        }
+    }
+
+    private static void dispatch(View view, long downTime, long eventTime, int action, float x,
+            float y) {
+        final MotionEvent event = MotionEvent.obtain(downTime, eventTime, action, x, y, 0);
+        view.dispatchTouchEvent(event);
+        event.recycle();
+    }
+}
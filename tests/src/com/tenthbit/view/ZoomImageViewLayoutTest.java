@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2013 Tomasz Zawada
+ *
+ * Based on the excellent PhotoView by Chris Banes:
+ * https://github.com/chrisbanes/PhotoView
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.tenthbit.view;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.ViewGroup.LayoutParams;
+import android.view.ViewTreeObserver;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import com.tenthbit.zoomimageview.sample.MainActivity;
+
+/**
+ * Counts the base matrix updates of the views of a pager with offscreen pages
+ * over layout passes of the window. Views listening to the global layout, as
+ * they used to, are called back on every pass; sizing the base matrix in
+ * onSizeChanged() only updates it when a view has actually been resized.
+ *
+ * @author tomasz.zawada@gmail.com
+ */
+public class ZoomImageViewLayoutTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    private static final String LOG_TAG = "ZoomImageViewLayout";
+
+    private static final int PAGE_COUNT = 5;
+    private static final int OFFSCREEN_PAGE_LIMIT = 2;
+    private static final int LAYOUT_PASSES = 20;
+
+    private final ZoomImageMetrics metrics = new ZoomImageMetrics();
+    private LinearLayout root;
+    private TextView label;
+    private ZoomViewPager pager;
+    private int layoutPasses;
+
+    public ZoomImageViewLayoutTest() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        final MainActivity activity = getActivity();
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                root = new LinearLayout(activity);
+                root.setOrientation(LinearLayout.VERTICAL);
+
+                label = new TextView(activity);
+                root.addView(label, LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT);
+
+                pager = new ZoomViewPager(activity);
+                pager.setOffscreenPageLimit(OFFSCREEN_PAGE_LIMIT);
+                pager.setAdapter(new ZoomPagerAdapter() {
+                    @Override
+                    public int getCount() {
+                        return PAGE_COUNT;
+                    }
+
+                    @Override
+                    protected void onBindView(ZoomImageView view, int position) {
+                        view.setMetrics(metrics);
+                        view.setImageDrawable(new BitmapDrawable(activity.getResources(),
+                                Bitmap.createBitmap(160, 120, Bitmap.Config.RGB_565)));
+                    }
+                });
+                root.addView(pager, LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+
+                root.getViewTreeObserver().addOnGlobalLayoutListener(
+                        new ViewTreeObserver.OnGlobalLayoutListener() {
+                            @Override
+                            public void onGlobalLayout() {
+                                layoutPasses++;
+                            }
+                        });
+                activity.setContentView(root);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    public void testLayoutPassesElsewhereDoNotUpdateTheBaseMatrix() throws Throwable {
+        final int pages = pager.getChildCount();
+        assertEquals(OFFSCREEN_PAGE_LIMIT + 1, pages);
+        startCounting();
+
+        for (int i = 0; i < LAYOUT_PASSES; i++) {
+            final String text = "Pass " + i;
+            runTestOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    label.setText(text);
+                }
+            });
+            getInstrumentation().waitForIdleSync();
+        }
+
+        final long updates = getBaseMatrixUpdates();
+        Log.i(LOG_TAG, layoutPasses + " layout passes of " + pages + " pages: "
+                + (layoutPasses * pages) + " global layout callbacks before, " + updates
+                + " base matrix updates after");
+        assertTrue(layoutPasses >= LAYOUT_PASSES);
+        assertEquals(0, updates);
+    }
+
+    public void testResizingUpdatesEachPageOnce() throws Throwable {
+        final int pages = pager.getChildCount();
+        startCounting();
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                root.setPadding(0, 0, 0, root.getHeight() / 4);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+
+        final long updates = getBaseMatrixUpdates();
+        Log.i(LOG_TAG, layoutPasses + " layout passes resizing " + pages + " pages: "
+                + (layoutPasses * pages) + " global layout callbacks before, " + updates
+                + " base matrix updates after");
+        assertEquals(pages, updates);
+    }
+
+    private void startCounting() throws Throwable {
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                metrics.reset();
+                layoutPasses = 0;
+            }
+        });
+    }
+
+    private long getBaseMatrixUpdates() {
+        final ZoomImageMetrics snapshot = new ZoomImageMetrics();
+        metrics.copyTo(snapshot);
+        return snapshot.getBaseMatrixUpdates();
+    }
+}